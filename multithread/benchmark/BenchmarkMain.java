@@ -0,0 +1,73 @@
+package benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs "PrimeSieveBenchmark" with the GC profiler, which reports the
+ * allocation rate next to the throughput, and saves the results as JSON so
+ * that later runs can be compared with them. Then prints the scaling
+ * efficiency of each combination of the other parameters, i.e. the
+ * throughput with "numThreads" threads divided by "numThreads" times the
+ * throughput with one thread.
+ *
+ * Usage: BenchmarkMain [result file], "prime-sieve-benchmark.json" by default.
+ */
+public class BenchmarkMain {
+  public static void main(String[] args) throws RunnerException {
+    String resultFile = (args.length > 0) ? args[0] : "prime-sieve-benchmark.json";
+    Options options = new OptionsBuilder()
+        .include(PrimeSieveBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result(resultFile)
+        .build();
+    printScalingEfficiency(new Runner(options).run());
+  }
+
+  /**
+   * Print the scaling efficiency over "numThreads" for each combination of
+   * the other parameters measured with one thread.
+   */
+  static void printScalingEfficiency(Collection<RunResult> results) {
+    Map<String, Double> singleThreadScores = new TreeMap<String, Double>();
+    Map<String, List<RunResult>> groups = new TreeMap<String, List<RunResult>>();
+    for (RunResult result : results) {
+      String group = "upperBound=" + result.getParams().getParam("upperBound")
+          + " sieveMode=" + result.getParams().getParam("sieveMode");
+      if (!groups.containsKey(group)) {
+        groups.put(group, new ArrayList<RunResult>());
+      }
+      groups.get(group).add(result);
+      if (Integer.parseInt(result.getParams().getParam("numThreads")) == 1) {
+        singleThreadScores.put(group, result.getPrimaryResult().getScore());
+      }
+    }
+    System.out.println();
+    System.out.println("Scaling efficiency (1.0 is linear):");
+    for (Map.Entry<String, List<RunResult>> group : groups.entrySet()) {
+      Double singleThreadScore = singleThreadScores.get(group.getKey());
+      if (singleThreadScore == null || singleThreadScore <= 0) {
+        continue;
+      }
+      StringBuilder line = new StringBuilder(group.getKey());
+      for (RunResult result : group.getValue()) {
+        int numThreads = Integer.parseInt(result.getParams().getParam("numThreads"));
+        double efficiency = result.getPrimaryResult().getScore() / (numThreads * singleThreadScore);
+        line.append(String.format("  %d threads: %.2f", numThreads, efficiency));
+      }
+      System.out.println(line);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package benchmark;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import primeNumberCalculation.PrimeBlockConsumer;
+import primeNumberCalculation.PrimeNumberCalculationModule;
+import primeNumberCalculation.PrimeNumberCalculator;
+import primeNumberCalculation.SieveMode;
+
+/**
+ * Measures how many full sieves of [0, upperBound) "PrimeNumberCalculator"
+ * runs per second, for every combination of the parameters below. Each
+ * combination gets its own calculator and executor, built once per trial.
+ *
+ * Run it through "BenchmarkMain", which adds the GC profiler for the
+ * allocation rate and prints the scaling efficiency over "numThreads".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrimeSieveBenchmark {
+  /** The segment length of the modules without one, 32KB of plain flags. */
+  static final int SEGMENT_LENGTH = 1 << 18;
+
+  @Param({ "1000000", "100000000" })
+  public int upperBound;
+
+  @Param({ "1", "2", "4", "8" })
+  public int numThreads;
+
+  /**
+   * The sieve mode, followed in the "PER_PRIME" mode by "/" and the
+   * "minLengthForEachWorker", which no other mode uses, so that the other
+   * modes aren't measured once per value of it.
+   */
+  @Param({ "PER_PRIME/1", "PER_PRIME/65536", "SEGMENTED", "WHEEL", "OFF_HEAP_WHEEL" })
+  public String sieveMode;
+
+  private ExecutorService executorService;
+  private PrimeNumberCalculator calculator;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    String[] modeAndMinLength = sieveMode.split("/");
+    int minLengthForEachWorker = (modeAndMinLength.length > 1)
+        ? Integer.parseInt(modeAndMinLength[1]) : 1;
+    Injector injector = Guice.createInjector(new PrimeNumberCalculationModule(upperBound,
+        numThreads, minLengthForEachWorker, SieveMode.valueOf(modeAndMinLength[0]),
+        SEGMENT_LENGTH));
+    executorService = injector.getInstance(
+        Key.get(ExecutorService.class, Names.named("executorService")));
+    calculator = injector.getInstance(PrimeNumberCalculator.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    calculator.close();
+    executorService.shutdown();
+  }
+
+  /**
+   * @return the number of prime numbers less than "upperBound", returned so
+   *         that the sieve can't be optimized away.
+   */
+  @Benchmark
+  public long countPrimes() throws InterruptedException {
+    final long[] count = new long[1];
+    calculator.forEachPrimeBlock(new PrimeBlockConsumer() {
+      @Override
+      public void accept(int[] primes, int numPrimes) {
+        count[0] += numPrimes;
+      }
+    });
+    return count[0];
+  }
+}
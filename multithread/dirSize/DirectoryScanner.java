@@ -0,0 +1,38 @@
+package dirSize;
+
+import com.google.inject.ImplementedBy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Reads the entries of one directory, without going into its
+ * sub-directories.
+ */
+@ImplementedBy(FileDirectoryScanner.class)
+public interface DirectoryScanner {
+  /**
+   * @param directory
+   *          the directory to read.
+   * @param subDirectories
+   *          list to which the sub-directories to go into are added.
+   * @param files
+   *          given the path and the size of each file of the directory, or
+   *          null.
+   * @return The total size of the files in such directory, not including the
+   *         ones in its sub-directories.
+   * @throws IOException
+   *           if the directory can't be listed.
+   */
+  public long scan(Path directory, List<Path> subDirectories, ObjLongConsumer<Path> files)
+      throws IOException;
+
+  /**
+   * Same as "scan(directory, subDirectories, null)".
+   */
+  public default long scan(Path directory, List<Path> subDirectories) throws IOException {
+    return scan(directory, subDirectories, null);
+  }
+}
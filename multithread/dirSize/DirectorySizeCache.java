@@ -0,0 +1,292 @@
+package dirSize;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The modification time, the size of the own files and the total size of each
+ * directory seen by "DirectoryTotalSizeCalculator.computeTotalSize(String,
+ * DirectorySizeCache)", along with the names of its sub-directories, kept in
+ * a file between the runs. A sub-directory the scanner found elsewhere, e.g.
+ * the real path of a symbolic link in the "FILE" mode, is kept by its absolute
+ * path instead of its name.
+ *
+ * Adding, removing or renaming an entry of a directory changes its
+ * modification time, so a directory whose modification time is the one in the
+ * cache is not listed again: the size of its own files and its sub-directories
+ * are taken from the cache, and only a "stat" of each directory is left. A file
+ * whose content changes in place doesn't change the modification time of its
+ * directory though, so such changes are only seen once something else in the
+ * directory changes, or after "clear".
+ *
+ * The file is a log of records: "save" only appends the directories which
+ * changed or went away since the previous save, so a save after a run over a
+ * mostly unchanged tree costs little, and the last record of a directory
+ * wins when the file is read. Once more than half of the records are
+ * superseded, the file is compacted: the live entries are written to a
+ * temporary file which then replaces it. A crash while appending leaves at
+ * most a torn last record, which is dropped when the file is read.
+ */
+public class DirectorySizeCache {
+  /**
+   * A directory changed less than this long before it was scanned may change
+   * again without its modification time changing, on file systems with a
+   * coarse clock. Its modification time is not trusted by the next run.
+   */
+  static final long MTIME_GRANULARITY_NANOS = TimeUnit.SECONDS.toNanos(2);
+  static final long UNTRUSTED_MTIME = Long.MIN_VALUE;
+  private static final int MAGIC = 0x44534332;
+  private static final byte ENTRY_RECORD = 1;
+  private static final byte REMOVAL_RECORD = 0;
+
+  private final Path file;
+  private final Map<Path, Entry> entries;
+  private final AtomicLong generation = new AtomicLong(0);
+  /** The directories put or removed since the last save. */
+  private final Set<Path> changed = ConcurrentHashMap.newKeySet();
+  /** The number of records in the file, live or superseded. */
+  private long numRecords;
+  private volatile boolean compactionNeeded;
+
+  private DirectorySizeCache(Path file, Map<Path, Entry> entries, long numRecords,
+      boolean compactionNeeded) {
+    this.file = file;
+    this.entries = entries;
+    this.numRecords = numRecords;
+    this.compactionNeeded = compactionNeeded;
+  }
+
+  /**
+   * @param file
+   *          the file holding the cache, which doesn't need to exist yet. It
+   *          should be outside of the directories whose sizes are computed.
+   * @return The cache read from such file, or an empty one.
+   * @throws IOException
+   *           if the file exists but can't be read as a cache.
+   */
+  public static DirectorySizeCache open(Path file) throws IOException {
+    Map<Path, Entry> entries = new ConcurrentHashMap<Path, Entry>();
+    if (!Files.exists(file)) {
+      return new DirectorySizeCache(file, entries, 0, true);
+    }
+    long numRecords = 0;
+    boolean torn = false;
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(file + " is not a directory size cache");
+      }
+      for (int kind = in.read(); kind >= 0; kind = in.read()) {
+        try {
+          Path directory = Paths.get(in.readUTF());
+          if (kind == REMOVAL_RECORD) {
+            entries.remove(directory);
+          } else if (kind == ENTRY_RECORD) {
+            entries.put(directory, readEntry(in));
+          } else {
+            throw new IOException(file + " holds an unknown record");
+          }
+        } catch (EOFException e) {
+          torn = true;
+          break;
+        }
+        ++numRecords;
+      }
+    } catch (EOFException e) {
+      throw new IOException(file + " is not a directory size cache", e);
+    }
+    // Rewrite a torn file rather than appending after the torn record.
+    return new DirectorySizeCache(file, entries, numRecords, torn);
+  }
+
+  private static Entry readEntry(DataInputStream in) throws IOException {
+    long mtime = in.readLong();
+    long ownSize = in.readLong();
+    long totalSize = in.readLong();
+    String[] subDirectoryNames = new String[in.readInt()];
+    for (int j = 0; j < subDirectoryNames.length; ++j) {
+      subDirectoryNames[j] = in.readUTF();
+    }
+    return new Entry(mtime, ownSize, totalSize, subDirectoryNames, 0);
+  }
+
+  private static void writeEntry(DataOutputStream out, Path directory, Entry entry)
+      throws IOException {
+    out.writeByte(ENTRY_RECORD);
+    out.writeUTF(directory.toString());
+    out.writeLong(entry.mtime);
+    out.writeLong(entry.ownSize);
+    out.writeLong(entry.totalSize);
+    out.writeInt(entry.subDirectoryNames.length);
+    for (String name : entry.subDirectoryNames) {
+      out.writeUTF(name);
+    }
+  }
+
+  /**
+   * Write the changes since the previous save to the file, or compact it.
+   * 
+   * @throws IOException
+   */
+  public synchronized void save() throws IOException {
+    if (compactionNeeded || numRecords + changed.size() > 2L * entries.size()) {
+      compact();
+      return;
+    }
+    if (changed.isEmpty()) {
+      return;
+    }
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(file, StandardOpenOption.APPEND)))) {
+      for (Iterator<Path> iterator = changed.iterator(); iterator.hasNext();) {
+        Path directory = iterator.next();
+        // Removed first, so that a change made meanwhile is saved next time.
+        iterator.remove();
+        Entry entry = entries.get(directory);
+        if (entry == null) {
+          out.writeByte(REMOVAL_RECORD);
+          out.writeUTF(directory.toString());
+        } else {
+          writeEntry(out, directory, entry);
+        }
+        ++numRecords;
+      }
+    }
+  }
+
+  /**
+   * Write all the entries to a temporary file which then replaces the file.
+   */
+  private void compact() throws IOException {
+    Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+    changed.clear();
+    compactionNeeded = false;
+    // Take a snapshot, so that the count matches the entries written.
+    Map<Path, Entry> snapshot = new HashMap<Path, Entry>(entries);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+      out.writeInt(MAGIC);
+      for (Map.Entry<Path, Entry> mapEntry : snapshot.entrySet()) {
+        writeEntry(out, mapEntry.getKey(), mapEntry.getValue());
+      }
+    } catch (IOException e) {
+      compactionNeeded = true;
+      throw e;
+    }
+    try {
+      Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      compactionNeeded = true;
+      throw e;
+    }
+    numRecords = snapshot.size();
+  }
+
+  /**
+   * @return The total size of the directory found by the last run going
+   *         through it, or null if there is none.
+   */
+  public Long getTotalSize(Path directory) {
+    Entry entry = entries.get(directory);
+    return (entry == null) ? null : entry.totalSize;
+  }
+
+  /**
+   * @return The number of directories in the cache.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Forget all the directories, so that the next run scans all of them.
+   */
+  public void clear() {
+    entries.clear();
+    changed.clear();
+    compactionNeeded = true;
+  }
+
+  Entry get(Path directory) {
+    return entries.get(directory);
+  }
+
+  void put(Path directory, Entry entry) {
+    Entry previous = entries.put(directory, entry);
+    if (previous == null || !previous.sameAs(entry)) {
+      changed.add(directory);
+    }
+  }
+
+  /**
+   * @return the generation of the entries put by a new run.
+   */
+  long nextGeneration() {
+    return generation.incrementAndGet();
+  }
+
+  /**
+   * Remove the directories under "root" (included) which were not seen by the
+   * run of generation "generation", as they don't exist anymore. The
+   * directories reached through a link to outside of "root" are kept until
+   * "clear".
+   */
+  void removeStale(Path root, long generation) {
+    Iterator<Map.Entry<Path, Entry>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Path, Entry> mapEntry = iterator.next();
+      if (mapEntry.getValue().generation != generation && mapEntry.getKey().startsWith(root)) {
+        iterator.remove();
+        changed.add(mapEntry.getKey());
+      }
+    }
+  }
+
+  /**
+   * What is known of one directory.
+   */
+  static final class Entry {
+    /** In nanoseconds since the epoch, or "UNTRUSTED_MTIME". */
+    final long mtime;
+    final long ownSize;
+    final long totalSize;
+    /** Resolved against the directory, so absolute paths stay as they are. */
+    final String[] subDirectoryNames;
+    final long generation;
+
+    Entry(long mtime, long ownSize, long totalSize, String[] subDirectoryNames, long generation) {
+      this.mtime = mtime;
+      this.ownSize = ownSize;
+      this.totalSize = totalSize;
+      this.subDirectoryNames = subDirectoryNames;
+      this.generation = generation;
+    }
+
+    /**
+     * @return true if "other" would be saved as the same record, whatever
+     *         the generations.
+     */
+    boolean sameAs(Entry other) {
+      return mtime == other.mtime && ownSize == other.ownSize && totalSize == other.totalSize
+          && Arrays.equals(subDirectoryNames, other.subDirectoryNames);
+    }
+  }
+}
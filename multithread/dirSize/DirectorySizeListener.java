@@ -0,0 +1,19 @@
+package dirSize;
+
+import java.nio.file.Path;
+
+/**
+ * Told about each directory as soon as its whole subtree has been scanned,
+ * by "DirectoryTotalSizeCalculator.computeSizeBreakdown". The calls come from
+ * the worker threads, several at once, and the sub-directories of a directory
+ * always come before it.
+ */
+public interface DirectorySizeListener {
+  /**
+   * @param directory
+   *          the directory whose subtree is done.
+   * @param totalSize
+   *          the total size of the files in the subtree.
+   */
+  public void onDirectoryDone(Path directory, long totalSize);
+}
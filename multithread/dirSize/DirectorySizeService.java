@@ -0,0 +1,206 @@
+package dirSize;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Computes the total sizes of directories for any number of callers at once,
+ * on one "ForkJoinPool" of "numThreads" threads shared by all of them, unlike
+ * "DirectoryTotalSizeCalculator" which serves one call at a time. Each request
+ * gets its own future, and nothing is shared between the requests but the
+ * pool.
+ *
+ * In a batch given to "submitAll", a directory under another one of the batch
+ * is not scanned on its own: its total size is taken on the way when the
+ * outer directory is scanned, and its future completes as soon as its subtree
+ * is done. A request for a directory being scanned already gets the result of
+ * that scan.
+ */
+@Singleton
+public class DirectorySizeService implements AutoCloseable {
+  private final ForkJoinPool pool;
+  private final DirectoryScanner scanner;
+  private final Map<Path, CompletableFuture<Long>> inFlight =
+      new ConcurrentHashMap<Path, CompletableFuture<Long>>();
+
+  /**
+   * @param numThreads
+   *          the number of threads shared by all the requests.
+   * @param scanner
+   *          reads the entries of each directory.
+   */
+  @Inject
+  public DirectorySizeService(@DirectoryTotalSizeCalculator.NumThreads Integer numThreads,
+      DirectoryScanner scanner) {
+    if (numThreads <= 0) {
+      throw new IllegalArgumentException("The number of threads allowed to use should be positive");
+    }
+    this.pool = new ForkJoinPool(numThreads);
+    this.scanner = scanner;
+  }
+
+  /**
+   * @param directoryName
+   *          the name of directory whose total size to be computed.
+   * @return The future total size of the directory, which fails with an
+   *         "IllegalArgumentException" if there is no readable directory with
+   *         such name.
+   */
+  public CompletableFuture<Long> submit(String directoryName) {
+    return submitAll(Collections.singletonList(directoryName)).get(directoryName);
+  }
+
+  /**
+   * @param directoryNames
+   *          the names of directories whose total sizes to be computed.
+   * @return The future total size of each directory, by name. Cancelling one
+   *         of them doesn't stop the scan.
+   */
+  public Map<String, CompletableFuture<Long>> submitAll(Collection<String> directoryNames) {
+    Map<String, CompletableFuture<Long>> results =
+        new LinkedHashMap<String, CompletableFuture<Long>>();
+    final Map<Path, CompletableFuture<Long>> wanted = new HashMap<Path, CompletableFuture<Long>>();
+    for (String directoryName : directoryNames) {
+      if (results.containsKey(directoryName)) {
+        continue;
+      }
+      Path directory;
+      try {
+        directory = toDirectory(directoryName);
+      } catch (IllegalArgumentException e) {
+        CompletableFuture<Long> failed = new CompletableFuture<Long>();
+        failed.completeExceptionally(e);
+        results.put(directoryName, failed);
+        continue;
+      }
+      CompletableFuture<Long> future = wanted.get(directory);
+      if (future == null) {
+        // Only the request putting its future first scans the directory,
+        // the others get the result of that scan. A scan done already but
+        // not removed yet is replaced.
+        final CompletableFuture<Long> candidate = new CompletableFuture<Long>();
+        future = inFlight.putIfAbsent(directory, candidate);
+        while (future != null && future.isDone()) {
+          inFlight.remove(directory, future);
+          future = inFlight.putIfAbsent(directory, candidate);
+        }
+        if (future == null) {
+          future = candidate;
+          wanted.put(directory, candidate);
+          candidate.whenComplete((size, failure) -> inFlight.remove(directory, candidate));
+        }
+      }
+      results.put(directoryName, future.copy());
+    }
+    final ScanCollector collector = new ScanCollector() {
+      @Override
+      public ObjLongConsumer<Path> files() {
+        return null;
+      }
+
+      @Override
+      public void directoryDone(Path directory, long totalSize) {
+        CompletableFuture<Long> future = wanted.get(directory);
+        if (future != null) {
+          future.complete(totalSize);
+        }
+      }
+    };
+    for (final Map.Entry<Path, CompletableFuture<Long>> entry : wanted.entrySet()) {
+      final Path directory = entry.getKey();
+      if (hasAncestorIn(directory, wanted)) {
+        continue;
+      }
+      try {
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              new DirectoryTotalSizeCalculator.DirectorySizeTask(directory, scanner, collector)
+                  .invoke();
+              // The directories of the batch the scan didn't go through,
+              // like the ones under a directory which can't be listed.
+              for (Map.Entry<Path, CompletableFuture<Long>> nested : wanted.entrySet()) {
+                if (!nested.getValue().isDone() && nested.getKey().startsWith(directory)) {
+                  new DirectoryTotalSizeCalculator.DirectorySizeTask(nested.getKey(), scanner,
+                      collector).invoke();
+                }
+              }
+            } catch (RuntimeException | Error e) {
+              failSubtree(directory, wanted, e);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // Closed: fail the futures, which also takes them out of "inFlight".
+        failSubtree(directory, wanted, e);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Stop the threads, once the requests submitted are done. The futures of
+   * the requests submitted afterwards fail with a
+   * "RejectedExecutionException".
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * @return The real path of the directory with such name, so that the same
+   *         directory always has the same path.
+   * @throws IllegalArgumentException
+   *           if there is no readable directory with such name.
+   */
+  private static Path toDirectory(String directoryName) {
+    File directory = new File(directoryName);
+    if (!(directory.isDirectory() && directory.canRead())) {
+      throw new IllegalArgumentException("Can't read the directory " + directoryName);
+    }
+    try {
+      return Paths.get(directoryName).toRealPath();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Can't read the directory " + directoryName, e);
+    }
+  }
+
+  /**
+   * Fail the futures of "directory" and of the directories of the batch under
+   * it which are not done yet.
+   */
+  private static void failSubtree(Path directory, Map<Path, CompletableFuture<Long>> wanted,
+      Throwable cause) {
+    for (Map.Entry<Path, CompletableFuture<Long>> nested : wanted.entrySet()) {
+      if (nested.getKey().startsWith(directory)) {
+        nested.getValue().completeExceptionally(cause);
+      }
+    }
+  }
+
+  private static boolean hasAncestorIn(Path directory, Map<Path, ?> directories) {
+    for (Path parent = directory.getParent(); parent != null; parent = parent.getParent()) {
+      if (directories.containsKey(parent)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,349 @@
+package dirSize;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Keeps the total size of a directory tree up to date, as returned by
+ * "DirectoryTotalSizeCalculator.watchTotalSize". After one parallel scan of
+ * the tree, every directory of it is registered with a "WatchService", and a
+ * thread applies the changes it reports: the size of a created or modified
+ * file replaces the one recorded for it, a deleted file or directory takes
+ * its size away, and a created directory is scanned. The change is added to
+ * the total size of the directory and of each of its ancestors, so that any
+ * total size is read at once.
+ *
+ * Applying the size of a file rather than adding it makes the changes already
+ * seen by the scan harmless. If the watch service drops events, the subtree
+ * of the topmost directory concerned is scanned again, once for all the
+ * directories of it whose events were dropped at the same time. A scanned
+ * subtree is only swapped in once complete, together with the change of its
+ * size applied to its ancestors, so the total sizes never go through a
+ * partial scan.
+ *
+ * The size of every file is held in memory, and every directory takes one
+ * watch of the operating system, which may need to be raised for large trees
+ * (e.g. "fs.inotify.max_user_watches" on Linux). The directories are listed
+ * by the scanner of the calculator, and known by their real paths: in the
+ * "FILE" mode, which follows symbolic links, a directory reached through a
+ * link is watched at the path it links to, so removing the link itself isn't
+ * noticed.
+ */
+public class DirectorySizeWatcher implements AutoCloseable {
+  private final Path root;
+  private final DirectoryScanner scanner;
+  private final Map<Path, DirectoryState> states = new ConcurrentHashMap<Path, DirectoryState>();
+  private final WatchService watchService;
+  private final ForkJoinPool pool;
+  private final Thread eventThread;
+
+  /**
+   * Scan the tree and start watching it.
+   *
+   * @param root
+   *          the directory to watch.
+   * @param numThreads
+   *          the number of threads scanning the tree.
+   * @param scanner
+   *          reads the entries of each directory.
+   * @throws IOException
+   *           if no watch service can be made for the tree.
+   */
+  DirectorySizeWatcher(Path root, int numThreads, DirectoryScanner scanner) throws IOException {
+    this.root = root.toRealPath();
+    this.scanner = scanner;
+    this.watchService = this.root.getFileSystem().newWatchService();
+    this.pool = new ForkJoinPool(numThreads);
+    states.putAll(scan(this.root, null));
+    this.eventThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        processEvents();
+      }
+    }, "DirectorySizeWatcher " + root);
+    eventThread.setDaemon(true);
+    eventThread.start();
+  }
+
+  /**
+   * @return The current total size of the watched directory.
+   */
+  public long getTotalSize() {
+    return getTotalSize(root);
+  }
+
+  /**
+   * @return The current total size of the directory of the tree with such
+   *         real path, or null if it isn't in the tree.
+   */
+  public Long getTotalSize(Path directory) {
+    DirectoryState state = states.get(directory);
+    return (state == null) ? null : state.totalSize.get();
+  }
+
+  /**
+   * Stop watching the tree.
+   */
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    try {
+      eventThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    pool.shutdown();
+  }
+
+  /**
+   * Apply the events of all the keys signalled so far, then scan again the
+   * topmost directories whose events were dropped, before resetting the keys.
+   * On Linux a dropped event is reported on every key at once.
+   */
+  private void processEvents() {
+    while (true) {
+      List<WatchKey> keys = new ArrayList<WatchKey>();
+      Set<DirectoryState> overflowed = new HashSet<DirectoryState>();
+      try {
+        for (WatchKey key = watchService.take(); key != null; key = watchService.poll()) {
+          keys.add(key);
+          DirectoryState state = states.get((Path) key.watchable());
+          if (state == null) {
+            continue;
+          }
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+              overflowed.add(state);
+            } else if (!overflowed.contains(state)) {
+              handle(state, event.kind(), (Path) event.context());
+            }
+          }
+        }
+      } catch (ClosedWatchServiceException | InterruptedException e) {
+        return;
+      }
+      for (DirectoryState state : overflowed) {
+        if (!hasAncestorIn(state, overflowed) && states.get(state.directory) == state) {
+          rescan(state);
+        }
+      }
+      for (WatchKey key : keys) {
+        key.reset();
+      }
+    }
+  }
+
+  private static boolean hasAncestorIn(DirectoryState state, Set<DirectoryState> states) {
+    for (DirectoryState parent = state.parent; parent != null; parent = parent.parent) {
+      if (states.contains(parent)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void handle(DirectoryState state, WatchEvent.Kind<?> kind, Path name) {
+    Path entry = state.directory.resolve(name);
+    String fileName = name.toString();
+    if (kind == ENTRY_DELETE) {
+      Long oldSize = state.fileSizes.remove(fileName);
+      if (oldSize != null) {
+        addToTotalSizes(state, -oldSize);
+      }
+      DirectoryState subDirectoryState = states.get(entry);
+      if (subDirectoryState != null) {
+        addToTotalSizes(state, -remove(subDirectoryState));
+      }
+      return;
+    }
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+          LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException e) {
+      // Removed since, a deletion event follows.
+      return;
+    }
+    if (attributes.isRegularFile()) {
+      Long oldSize = state.fileSizes.put(fileName, attributes.size());
+      addToTotalSizes(state, attributes.size() - ((oldSize == null) ? 0 : oldSize));
+    } else if (attributes.isDirectory() && !states.containsKey(entry)) {
+      Map<Path, DirectoryState> scanned = scan(entry, state);
+      states.putAll(scanned);
+      addToTotalSizes(state, scanned.get(entry).totalSize.get());
+    }
+  }
+
+  /**
+   * Register and scan the subtree of a directory into states of its own,
+   * which nobody reading the total sizes sees until they are put into
+   * "states".
+   *
+   * @return the states of the subtree by path, including the one of the
+   *         directory.
+   */
+  private Map<Path, DirectoryState> scan(Path directory, DirectoryState parent) {
+    Map<Path, DirectoryState> scanned = new ConcurrentHashMap<Path, DirectoryState>();
+    pool.invoke(new ScanTask(directory, parent, scanned));
+    return scanned;
+  }
+
+  /**
+   * Scan the subtree of a directory again, after the watch service dropped
+   * some of its events, then swap the new states in for the old ones and
+   * apply the change of size to the ancestors. The directories still there
+   * keep their watch keys, which registering them again returns.
+   */
+  private void rescan(DirectoryState state) {
+    Map<Path, DirectoryState> scanned = scan(state.directory, state.parent);
+    List<DirectoryState> oldStates = new ArrayList<DirectoryState>();
+    collectSubtree(state, oldStates);
+    states.putAll(scanned);
+    for (DirectoryState oldState : oldStates) {
+      if (!scanned.containsKey(oldState.directory)) {
+        states.remove(oldState.directory, oldState);
+        if (oldState.key != null) {
+          oldState.key.cancel();
+        }
+      }
+    }
+    if (state.parent != null) {
+      addToTotalSizes(state.parent,
+          scanned.get(state.directory).totalSize.get() - state.totalSize.get());
+    }
+  }
+
+  /**
+   * Add the states of a directory and of its subtree to "subtree".
+   */
+  private void collectSubtree(DirectoryState state, List<DirectoryState> subtree) {
+    subtree.add(state);
+    for (String name : state.subDirectoryNames) {
+      DirectoryState subDirectoryState = states.get(state.directory.resolve(name));
+      if (subDirectoryState != null) {
+        collectSubtree(subDirectoryState, subtree);
+      }
+    }
+  }
+
+  private static void addToTotalSizes(DirectoryState state, long delta) {
+    for (; state != null; state = state.parent) {
+      state.totalSize.addAndGet(delta);
+    }
+  }
+
+  /**
+   * Forget a directory and its subtree, and stop watching them.
+   *
+   * @return the total size of the directory.
+   */
+  private long remove(DirectoryState state) {
+    for (String name : state.subDirectoryNames) {
+      DirectoryState subDirectoryState = states.get(state.directory.resolve(name));
+      if (subDirectoryState != null) {
+        remove(subDirectoryState);
+      }
+    }
+    states.remove(state.directory);
+    if (state.parent != null) {
+      state.parent.subDirectoryNames.remove(state.directory.getFileName().toString());
+    }
+    if (state.key != null) {
+      state.key.cancel();
+    }
+    return state.totalSize.get();
+  }
+
+  /**
+   * What is known of one directory of the tree.
+   */
+  private static class DirectoryState {
+    final Path directory;
+    final DirectoryState parent;
+    final AtomicLong totalSize = new AtomicLong(0);
+    final Map<String, Long> fileSizes = new ConcurrentHashMap<String, Long>();
+    final Set<String> subDirectoryNames = ConcurrentHashMap.newKeySet();
+    volatile WatchKey key;
+
+    DirectoryState(Path directory, DirectoryState parent) {
+      this.directory = directory;
+      this.parent = parent;
+    }
+  }
+
+  /**
+   * Task registering and scanning one directory into "scanned", which forks
+   * one task per sub-directory. The directory is registered before being
+   * listed, so that no change is missed in between.
+   */
+  private class ScanTask extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+    private final Path directory;
+    private final DirectoryState parent;
+    private final Map<Path, DirectoryState> scanned;
+
+    ScanTask(Path directory, DirectoryState parent, Map<Path, DirectoryState> scanned) {
+      this.directory = directory;
+      this.parent = parent;
+      this.scanned = scanned;
+    }
+
+    @Override
+    protected Long compute() {
+      final DirectoryState state = new DirectoryState(directory, parent);
+      scanned.put(directory, state);
+      if (parent != null) {
+        parent.subDirectoryNames.add(directory.getFileName().toString());
+      }
+      List<Path> subDirectories = new ArrayList<Path>();
+      long directorySize = 0;
+      try {
+        state.key = directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        scanner.scan(directory, subDirectories, new ObjLongConsumer<Path>() {
+          @Override
+          public void accept(Path file, long size) {
+            state.fileSizes.put(file.getFileName().toString(), size);
+          }
+        });
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      for (long size : state.fileSizes.values()) {
+        directorySize += size;
+      }
+      List<ScanTask> subTasks = new ArrayList<ScanTask>(subDirectories.size());
+      for (Path subDirectory : subDirectories) {
+        ScanTask subTask = new ScanTask(subDirectory, state, scanned);
+        subTask.fork();
+        subTasks.add(subTask);
+      }
+      for (int i = subTasks.size() - 1; i >= 0; --i) {
+        directorySize += subTasks.get(i).join();
+      }
+      state.totalSize.set(directorySize);
+      return directorySize;
+    }
+  }
+}
@@ -15,13 +15,23 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -42,6 +52,9 @@ public class DirectoryTotalSizeCalculator {
   private ExecutorService executorService;
   private final SizeCalculatorFactory factory;
   private final CurrentTime currentTime;
+  private final TraversalMode traversalMode;
+  private final DirectoryScanner scanner;
+  private final int maxInFlight;
   /**
    * Method that is called only after a calling of "computeTotalSize" to get the
    * elapsed time of such calling.
@@ -73,15 +86,29 @@ public class DirectoryTotalSizeCalculator {
    *          factory used to construct worker threads.
    * @param currentTime
    *          CurrentTime object used to get current time.
+   * @param traversalMode
+   *          the way to walk over the directory tree.
+   * @param scanner
+   *          reads the entries of each directory, whatever the traversal
+   *          mode.
+   * @param maxInFlight
+   *          the largest number of directories listed at once in the
+   *          "VIRTUAL_THREADS" mode.
    */
   @Inject 
   public DirectoryTotalSizeCalculator(
       @NumThreads Integer numThreads,
       SizeCalculatorFactory factory, 
-      CurrentTime currentTime) {
+      CurrentTime currentTime,
+      TraversalMode traversalMode,
+      DirectoryScanner scanner,
+      @MaxInFlight Integer maxInFlight) {
     if (numThreads <= 0) {
       throw new IllegalArgumentException("The number of threads allowed to use should be positive");
     }
+    if (maxInFlight <= 0) {
+      throw new IllegalArgumentException("The number of directories listed at once should be positive");
+    }
     this.numThreads = numThreads;
     this.subDirectoryName = new LinkedBlockingQueue<String>();
     this.totalSize = new AtomicLong(0);
@@ -89,11 +116,17 @@ public class DirectoryTotalSizeCalculator {
     this.factory = factory;
     this.workers = new ArrayList<Callable<Integer>>();
     this.currentTime = currentTime;
+    this.traversalMode = traversalMode;
+    this.scanner = scanner;
+    this.maxInFlight = maxInFlight;
   }
 
   @BindingAnnotation @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
   public @interface NumThreads {}
 
+  @BindingAnnotation @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
+  public @interface MaxInFlight {}
+
   
   
   /**
@@ -107,8 +140,17 @@ public class DirectoryTotalSizeCalculator {
    *          
    * @return The total size of the directory
    * @throws InterruptedException 
+   * @throws IllegalArgumentException
+   *           if there is no readable directory with such name.
    */
   public long computeTotalSize(String directoryName) throws InterruptedException {
+    checkDirectory(directoryName);
+    if (traversalMode == TraversalMode.FORK_JOIN) {
+      return computeTotalSizeByForkJoin(directoryName, null);
+    }
+    if (traversalMode == TraversalMode.VIRTUAL_THREADS) {
+      return computeTotalSizeByVirtualThreads(directoryName);
+    }
     executorService = Executors.newFixedThreadPool(this.numThreads);
     startTime = currentTime.NowMillis();
     subDirectoryName.put(directoryName);
@@ -121,6 +163,167 @@ public class DirectoryTotalSizeCalculator {
     return totalSize.get();
   }
 
+  /**
+   * Compute the total size of the directory with name given as the parameter,
+   * along with the total size of each of its sub-directories and the largest
+   * directories and files, in one pass. The tree is walked as in the
+   * "FORK_JOIN" mode whatever the traversal mode, as the total size of a
+   * directory is only known once the tasks of its sub-directories return.
+   * "getTotalSize" and "getElapsedTime" are updated as by "computeTotalSize".
+   * 
+   * @param directoryName
+   *          the name of directory whose total size to be computed.
+   * @param topN
+   *          the number of largest directories and files to report.
+   * @param listener
+   *          told about each directory as soon as its subtree is done, or
+   *          null.
+   * @return The breakdown of the sizes of the directory
+   * @throws IllegalArgumentException
+   *           if there is no readable directory with such name.
+   */
+  public SizeBreakdown computeSizeBreakdown(String directoryName, int topN,
+      DirectorySizeListener listener) {
+    checkDirectory(directoryName);
+    SizeBreakdown.Collector collector = new SizeBreakdown.Collector(topN, listener);
+    computeTotalSizeByForkJoin(directoryName, collector);
+    return collector.build(totalSize.get());
+  }
+
+  /**
+   * Same as "computeTotalSize", going only through the directories that
+   * changed since the previous run recorded in "cache", and recording this
+   * run in it. The tree is walked as in the "FORK_JOIN" mode whatever the
+   * traversal mode. The cache is not written to its file, see
+   * "DirectorySizeCache.save".
+   * 
+   * @param directoryName
+   *          the name of directory whose total size to be computed.
+   * @param cache
+   *          the cache of the directory sizes.
+   * @return The total size of the directory
+   * @throws IllegalArgumentException
+   *           if there is no readable directory with such name.
+   */
+  public long computeTotalSize(String directoryName, DirectorySizeCache cache) {
+    checkDirectory(directoryName);
+    Path root;
+    try {
+      // The same directory always has the same key in the cache.
+      root = Paths.get(directoryName).toRealPath();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Can't read the directory " + directoryName, e);
+    }
+    long generation = cache.nextGeneration();
+    // Compared with the modification times, so it is the time of the file
+    // system rather than "currentTime".
+    long trustedBefore = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())
+        - DirectorySizeCache.MTIME_GRANULARITY_NANOS;
+    ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+    startTime = currentTime.NowMillis();
+    totalSize.set(0);
+    try {
+      totalSize.set(pool.invoke(
+          new CachedDirectorySizeTask(root, scanner, cache, generation, trustedBefore)));
+    } finally {
+      pool.shutdown();
+    }
+    cache.removeStale(root, generation);
+    elapsedTime = currentTime.NowMillis() - startTime;
+    return totalSize.get();
+  }
+
+  /**
+   * Scan the directory with name given as the parameter with "numThreads"
+   * threads, then keep its total size up to date as the files in it change,
+   * until the returned watcher is closed. "getTotalSize" and "getElapsedTime"
+   * are updated by the scan as by "computeTotalSize".
+   * 
+   * @param directoryName
+   *          the name of directory whose total size to be watched.
+   * @return The watcher holding the current total sizes
+   * @throws IOException
+   *           if the directory can't be watched.
+   * @throws IllegalArgumentException
+   *           if there is no readable directory with such name.
+   */
+  public DirectorySizeWatcher watchTotalSize(String directoryName) throws IOException {
+    checkDirectory(directoryName);
+    startTime = currentTime.NowMillis();
+    DirectorySizeWatcher watcher =
+        new DirectorySizeWatcher(Paths.get(directoryName), numThreads, scanner);
+    totalSize.set(watcher.getTotalSize());
+    elapsedTime = currentTime.NowMillis() - startTime;
+    return watcher;
+  }
+
+  /**
+   * Compute the total size of the directory with name given as the parameter,
+   * along with the numbers of files and directories, the histogram of the
+   * file sizes and the bytes taken by each file extension, in one pass. The
+   * tree is walked as in the "FORK_JOIN" mode whatever the traversal mode.
+   * "getTotalSize" and "getElapsedTime" are updated as by "computeTotalSize".
+   * 
+   * @param directoryName
+   *          the name of directory whose files to be counted.
+   * @return The statistics of the files of the directory
+   * @throws IllegalArgumentException
+   *           if there is no readable directory with such name.
+   */
+  public FileStatistics computeFileStatistics(String directoryName) {
+    checkDirectory(directoryName);
+    FileStatistics.Collector collector = new FileStatistics.Collector();
+    computeTotalSizeByForkJoin(directoryName, collector);
+    return collector.build();
+  }
+
+  private static void checkDirectory(String directoryName) {
+    File directory = new File(directoryName);
+    if (!(directory.isDirectory() && directory.canRead())) {
+      throw new IllegalArgumentException("Can't read the directory " + directoryName);
+    }
+  }
+
+  /**
+   * Same as "computeTotalSize", walking over the tree with a "ForkJoinPool" of
+   * "numThreads" threads.
+   * 
+   * @param collector
+   *          collects more than the total size, or null.
+   */
+  private long computeTotalSizeByForkJoin(String directoryName, ScanCollector collector) {
+    ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+    startTime = currentTime.NowMillis();
+    totalSize.set(0);
+    try {
+      totalSize.set(pool.invoke(
+          new DirectorySizeTask(Paths.get(directoryName), scanner, collector)));
+    } finally {
+      pool.shutdown();
+    }
+    elapsedTime = currentTime.NowMillis() - startTime;
+    return totalSize.get();
+  }
+
+  /**
+   * Same as "computeTotalSize", listing each directory in a task of its own on
+   * a virtual thread, with at most "maxInFlight" listings at once.
+   */
+  private long computeTotalSizeByVirtualThreads(String directoryName)
+      throws InterruptedException {
+    ExecutorService executor = VirtualThreads.newExecutor(maxInFlight);
+    startTime = currentTime.NowMillis();
+    totalSize.set(0);
+    try {
+      ListingRun run = new ListingRun(executor, scanner, maxInFlight);
+      totalSize.set(run.await(Paths.get(directoryName)));
+    } finally {
+      executor.shutdown();
+    }
+    elapsedTime = currentTime.NowMillis() - startTime;
+    return totalSize.get();
+  }
+
   /**
    * Starting given number of threads forming a thread pool. The number of
    * threads is given when the DirectoryTotalSize object is constructed.
@@ -155,6 +358,7 @@ public class DirectoryTotalSizeCalculator {
     private AtomicLong totalSize;
     private AtomicInteger fileInQueue;
     private final int numThreads;
+    private final DirectoryScanner scanner;
 
     @Inject 
     public SizeCalculator(
@@ -162,8 +366,10 @@ public class DirectoryTotalSizeCalculator {
         @Assisted LinkedBlockingQueue<String> subDirectoryName,
         @Assisted AtomicLong totalSize,
         @Assisted AtomicInteger fileInQueue,
-        @Assisted("numThreads") Integer numThreads) {
+        @Assisted("numThreads") Integer numThreads,
+        DirectoryScanner scanner) {
       this.rank = rank;
+      this.scanner = scanner;
       this.subDirectoryName = subDirectoryName;
       this.totalSize = totalSize;
       this.fileInQueue = fileInQueue;
@@ -180,14 +386,18 @@ public class DirectoryTotalSizeCalculator {
      */
     @Override
     public Integer call() throws Exception {
+      // Only added to the shared total once done, so that the threads don't
+      // keep writing to the same counter.
+      long workerSize = 0;
       while (true) {
         try {
           String currentDirectoryName = subDirectoryName.take();
 
           if (isDirectorySpecial(currentDirectoryName)) {
+            totalSize.addAndGet(workerSize);
             return 0;
           }
-          totalSize.addAndGet(calculateCurrentDirectorySize(currentDirectoryName));
+          workerSize += calculateCurrentDirectorySize(currentDirectoryName);
         } catch (InterruptedException e) {
           e.printStackTrace(); 
         }
@@ -205,34 +415,27 @@ public class DirectoryTotalSizeCalculator {
      *         in the sub-directories of such directory.
      */
     private long calculateCurrentDirectorySize(String directoryName) {
-      File directory = new File(directoryName);
-      if (!(directory.isDirectory() && directory.canRead())) {
-        throw new IllegalArgumentException();
-      }
-      File[] allFiles = directory.listFiles();
+      List<Path> subDirectories = new ArrayList<Path>();
       long directorySize = 0;
-      for (File file : allFiles) {
-        if (file.isFile()) {
-          directorySize += file.length();
-        } else if (file.isDirectory() && file.canRead()) {
-          try {
-            fileInQueue.addAndGet(1);
-            subDirectoryName.put(file.getCanonicalPath());
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          } catch (IOException e) {
-            e.printStackTrace();
-          }
-
-        }
+      try {
+        directorySize = scanner.scan(Paths.get(directoryName), subDirectories);
+      } catch (IOException e) {
+        e.printStackTrace();
       }
-      synchronized (fileInQueue) {
-        if (fileInQueue.get() == 1) {
-          addSpecialDirectoryNames();
-        } else {
-          fileInQueue.decrementAndGet();
+      fileInQueue.addAndGet(subDirectories.size());
+      for (Path subDirectory : subDirectories) {
+        try {
+          subDirectoryName.put(subDirectory.toString());
+        } catch (InterruptedException e) {
+          e.printStackTrace();
         }
       }
+      // "fileInQueue" counts the directories queued or being scanned. The
+      // sub-directories of this one were counted first, so it only drops to
+      // zero once the last directory is done.
+      if (fileInQueue.decrementAndGet() == 0) {
+        addSpecialDirectoryNames();
+      }
       return directorySize;
     }
 
@@ -263,4 +466,194 @@ public class DirectoryTotalSizeCalculator {
     }
   }
 
+  /**
+   * Task computing the total size of one directory, used in the "FORK_JOIN"
+   * mode. It forks one task per sub-directory found by the scanner, adds up the sizes of
+   * its own files while they run, then joins them. The forked tasks are joined
+   * in the reverse order, so that the ones still in the deque of this thread
+   * are popped and run here unless another thread has stolen them. With a
+   * collector, the files and the total size of the directory are handed to it.
+   */
+  static class DirectorySizeTask extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+    private final Path directory;
+    private final DirectoryScanner scanner;
+    private final ScanCollector collector;
+
+    DirectorySizeTask(Path directory, DirectoryScanner scanner, ScanCollector collector) {
+      this.directory = directory;
+      this.scanner = scanner;
+      this.collector = collector;
+    }
+
+    @Override
+    protected Long compute() {
+      List<Path> subDirectories = new ArrayList<Path>();
+      long directorySize;
+      try {
+        directorySize = scanner.scan(directory, subDirectories,
+            (collector == null) ? null : collector.files());
+      } catch (IOException e) {
+        e.printStackTrace();
+        directorySize = 0;
+      }
+      List<DirectorySizeTask> subTasks = new ArrayList<DirectorySizeTask>(subDirectories.size());
+      for (Path subDirectory : subDirectories) {
+        DirectorySizeTask subTask = new DirectorySizeTask(subDirectory, scanner, collector);
+        subTask.fork();
+        subTasks.add(subTask);
+      }
+      for (int i = subTasks.size() - 1; i >= 0; --i) {
+        directorySize += subTasks.get(i).join();
+      }
+      if (collector != null) {
+        collector.directoryDone(directory, directorySize);
+      }
+      return directorySize;
+    }
+  }
+
+  /**
+   * Task computing the total size of one directory with a
+   * "DirectorySizeCache". If the modification time of the directory is the
+   * one in the cache, the size of its own files and its sub-directories are
+   * taken from the cache instead of listing it again. Its sub-directories are
+   * always visited, as a change deeper in the tree doesn't change the
+   * modification time of this directory.
+   */
+  static class CachedDirectorySizeTask extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+    private final Path directory;
+    private final DirectoryScanner scanner;
+    private final DirectorySizeCache cache;
+    private final long generation;
+    private final long trustedBefore;
+
+    CachedDirectorySizeTask(Path directory, DirectoryScanner scanner, DirectorySizeCache cache,
+        long generation, long trustedBefore) {
+      this.directory = directory;
+      this.scanner = scanner;
+      this.cache = cache;
+      this.generation = generation;
+      this.trustedBefore = trustedBefore;
+    }
+
+    @Override
+    protected Long compute() {
+      long mtime;
+      try {
+        mtime = Files.getLastModifiedTime(directory).to(TimeUnit.NANOSECONDS);
+      } catch (IOException e) {
+        e.printStackTrace();
+        return 0L;
+      }
+      List<Path> subDirectories = new ArrayList<Path>();
+      long ownSize;
+      DirectorySizeCache.Entry cached = cache.get(directory);
+      if (cached != null && cached.mtime == mtime) {
+        ownSize = cached.ownSize;
+        for (String name : cached.subDirectoryNames) {
+          // An absolute path, for a sub-directory the scanner gave elsewhere,
+          // is returned as is.
+          subDirectories.add(directory.resolve(name));
+        }
+      } else {
+        try {
+          ownSize = scanner.scan(directory, subDirectories);
+        } catch (IOException e) {
+          e.printStackTrace();
+          ownSize = 0;
+        }
+      }
+      List<CachedDirectorySizeTask> subTasks =
+          new ArrayList<CachedDirectorySizeTask>(subDirectories.size());
+      String[] subDirectoryNames = new String[subDirectories.size()];
+      for (int i = 0; i < subDirectories.size(); ++i) {
+        Path subDirectory = subDirectories.get(i);
+        // The scanner may give a path which is not under "directory", e.g.
+        // the real path of a symbolic link in the "FILE" mode.
+        subDirectoryNames[i] = directory.equals(subDirectory.getParent())
+            ? subDirectory.getFileName().toString()
+            : subDirectory.toAbsolutePath().toString();
+        CachedDirectorySizeTask subTask = new CachedDirectorySizeTask(
+            subDirectory, scanner, cache, generation, trustedBefore);
+        subTask.fork();
+        subTasks.add(subTask);
+      }
+      long directorySize = ownSize;
+      for (int i = subTasks.size() - 1; i >= 0; --i) {
+        directorySize += subTasks.get(i).join();
+      }
+      cache.put(directory, new DirectorySizeCache.Entry(
+          (mtime < trustedBefore) ? mtime : DirectorySizeCache.UNTRUSTED_MTIME,
+          ownSize, directorySize, subDirectoryNames, generation));
+      return directorySize;
+    }
+  }
+
+  /**
+   * One run of the "VIRTUAL_THREADS" mode. A task lists one directory while
+   * holding one of the "maxInFlight" permits, submits a task for each of its
+   * sub-directories and returns. "pending" counts the directories submitted
+   * but not done yet, and the run is over when it drops to zero.
+   */
+  static class ListingRun {
+    private final ExecutorService executor;
+    private final DirectoryScanner scanner;
+    private final Semaphore inFlight;
+    private final LongAdder totalSize = new LongAdder();
+    private final AtomicLong pending = new AtomicLong(0);
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    ListingRun(ExecutorService executor, DirectoryScanner scanner, int maxInFlight) {
+      this.executor = executor;
+      this.scanner = scanner;
+      this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * @return The total size of "root", once all its directories are done.
+     */
+    long await(Path root) throws InterruptedException {
+      submit(root);
+      done.await();
+      return totalSize.sum();
+    }
+
+    private void submit(final Path directory) {
+      pending.incrementAndGet();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            list(directory);
+          } finally {
+            if (pending.decrementAndGet() == 0) {
+              done.countDown();
+            }
+          }
+        }
+      });
+    }
+
+    private void list(Path directory) {
+      List<Path> subDirectories = new ArrayList<Path>();
+      try {
+        inFlight.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      try {
+        totalSize.add(scanner.scan(directory, subDirectories));
+      } catch (IOException e) {
+        e.printStackTrace();
+      } finally {
+        inFlight.release();
+      }
+      for (Path subDirectory : subDirectories) {
+        submit(subDirectory);
+      }
+    }
+  }
 }
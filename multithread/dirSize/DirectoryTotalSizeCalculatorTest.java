@@ -15,13 +15,33 @@ import org.junit.runners.Parameterized.Parameters;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ObjLongConsumer;
 
 @RunWith(value = Parameterized.class)
 public class DirectoryTotalSizeCalculatorTest {
 
   @Rule
   public TemporaryFolder folder = new TemporaryFolder();
+  @Rule
+  public TemporaryFolder cacheFolder = new TemporaryFolder();
 
   private final int numThreads;
   private final int fakeTimeStep;
@@ -97,6 +117,31 @@ public class DirectoryTotalSizeCalculatorTest {
     return depth * numChars;
   }
 
+  /**
+   * Prepare a temporary directory where every directory but the deepest ones
+   * has "width" sub-directories, and every directory has one file.
+   * @return the total size of the directory
+   * @throws IOException
+   */
+  private Long prepareTempWideDirectory() throws IOException {
+    File root = folder.newFolder(subFolderName);
+    return addWideDirectory(root, 3, 4, 100);
+  }
+
+  private long addWideDirectory(File directory, int depth, int width, long numChars)
+      throws IOException {
+    addOneFile(new File(directory, "file"), numChars);
+    long totalSize = numChars;
+    if (depth > 0) {
+      for (int i = 0; i < width; ++i) {
+        File subFolder = new File(directory, subFolderName + Integer.toString(i));
+        subFolder.mkdir();
+        totalSize += addWideDirectory(subFolder, depth - 1, width, numChars);
+      }
+    }
+    return totalSize;
+  }
+
   /**
    * Helper function to construct a new file with given size.
    * 
@@ -182,4 +227,428 @@ public class DirectoryTotalSizeCalculatorTest {
     theCalculator.computeTotalSize(folderLocationFile.getCanonicalPath());
     assertEquals(fakeTimeStep, theCalculator.getElapsedTime());
   }
+
+  /**
+   * Test "computeTotalSize" in the "FORK_JOIN" mode.
+   * 
+   * @throws IOException
+   * @throws InterruptedException 
+   */
+  @Test
+  public void testGetTotalSizeByForkJoin() throws IOException, InterruptedException {
+    Injector injector = Guice.createInjector(
+        new DirectoryTotalSizeModule(numThreads, TraversalMode.FORK_JOIN));
+    File folderLocationFile = folder.getRoot();
+    Long totalSize = prepareTempWideDirectory() + perpareTempDeepDirectory();
+    DirectoryTotalSizeCalculator theCalculator = injector
+        .getInstance(DirectoryTotalSizeCalculator.class);
+    assertEquals(totalSize,
+        new Long(theCalculator.computeTotalSize(folderLocationFile.getCanonicalPath())));
+    assertEquals(totalSize.longValue(), theCalculator.getTotalSize());
+    // A second run on the same calculator gives the same total.
+    assertEquals(totalSize,
+        new Long(theCalculator.computeTotalSize(folderLocationFile.getCanonicalPath())));
+  }
+
+  @Test
+  public void testElapsedTimeByForkJoin() throws IOException, InterruptedException {
+    Injector injector = Guice.createInjector(new DirectoryTotalSizeModule(
+        numThreads, 
+        true,
+        fakeTimeStep,
+        TraversalMode.FORK_JOIN));
+    File folderLocationFile = folder.getRoot();
+    prepareTempFolder();
+    DirectoryTotalSizeCalculator theCalculator = injector
+        .getInstance(DirectoryTotalSizeCalculator.class);
+    theCalculator.computeTotalSize(folderLocationFile.getCanonicalPath());
+    assertEquals(fakeTimeStep, theCalculator.getElapsedTime());
+  }
+
+  /**
+   * Test "computeTotalSize" in the "NIO" scan mode, with both traversal modes.
+   * 
+   * @throws IOException
+   * @throws InterruptedException 
+   */
+  @Test
+  public void testGetTotalSizeByNioScan() throws IOException, InterruptedException {
+    File folderLocationFile = folder.getRoot();
+    Long totalSize = prepareTempWideDirectory() + perpareTempDeepDirectory();
+    File unreadableFolder = folder.newFolder("unreadable");
+    addOneFile(new File(unreadableFolder, "file"), 1000);
+    unreadableFolder.setReadable(false);
+    if (unreadableFolder.canRead()) {
+      // Running as root, so it is counted anyway.
+      totalSize += 1000;
+    }
+    for (TraversalMode traversalMode : TraversalMode.values()) {
+      Injector injector = Guice.createInjector(
+          new DirectoryTotalSizeModule(numThreads, traversalMode, ScanMode.NIO));
+      DirectoryTotalSizeCalculator theCalculator = injector
+          .getInstance(DirectoryTotalSizeCalculator.class);
+      assertEquals(totalSize,
+          new Long(theCalculator.computeTotalSize(folderLocationFile.getCanonicalPath())));
+    }
+    unreadableFolder.setReadable(true);
+  }
+
+  /**
+   * Test "computeSizeBreakdown"
+   * 
+   * @throws IOException
+   */
+  @Test
+  public void testSizeBreakdown() throws IOException {
+    Long totalSize = prepareTempFolder() + 5000;
+    addOneFile(folder.newFile("bigFile"), 5000);
+    Path root = Paths.get(folder.getRoot().getCanonicalPath());
+    Path subFolder = root.resolve(subFolderName);
+    for (ScanMode scanMode : ScanMode.values()) {
+      Injector injector = Guice.createInjector(
+          new DirectoryTotalSizeModule(numThreads, TraversalMode.QUEUE, scanMode));
+      DirectoryTotalSizeCalculator theCalculator = injector
+          .getInstance(DirectoryTotalSizeCalculator.class);
+      final List<Path> doneDirectories = Collections.synchronizedList(new ArrayList<Path>());
+      SizeBreakdown breakdown = theCalculator.computeSizeBreakdown(root.toString(), 2,
+          new DirectorySizeListener() {
+            @Override
+            public void onDirectoryDone(Path directory, long directorySize) {
+              doneDirectories.add(directory);
+            }
+          });
+      assertEquals(totalSize.longValue(), breakdown.getTotalSize());
+      assertEquals(totalSize.longValue(), theCalculator.getTotalSize());
+      assertEquals(2, breakdown.getDirectorySizes().size());
+      assertEquals(totalSize, breakdown.getDirectorySizes().get(root));
+      assertEquals(new Long(10000), breakdown.getDirectorySizes().get(subFolder));
+      assertEquals(Arrays.asList(subFolder, root), doneDirectories);
+      assertEquals(root, breakdown.getLargestDirectories().get(0).getPath());
+      assertEquals(subFolder, breakdown.getLargestDirectories().get(1).getPath());
+      assertEquals(2, breakdown.getLargestFiles().size());
+      assertEquals(root.resolve("bigFile"), breakdown.getLargestFiles().get(0).getPath());
+      assertEquals(1000, breakdown.getLargestFiles().get(1).getSize());
+    }
+  }
+
+  /**
+   * Test "computeTotalSize" with a "DirectorySizeCache"
+   * 
+   * @throws IOException
+   * @throws InterruptedException 
+   */
+  @Test
+  public void testComputeTotalSizeWithCache() throws IOException, InterruptedException {
+    Long totalSize = prepareTempFolder();
+    Path root = Paths.get(folder.getRoot().getCanonicalPath());
+    Path subFolder = root.resolve(subFolderName);
+    Path otherFolder = Files.createDirectory(root.resolve("otherFolder"));
+    // Old enough for the modification times to be trusted.
+    FileTime oldTime = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+    Files.setLastModifiedTime(subFolder, oldTime);
+    Files.setLastModifiedTime(otherFolder, oldTime);
+    Files.setLastModifiedTime(root, oldTime);
+    Path cacheFile = cacheFolder.getRoot().toPath().resolve("sizes");
+    Injector injector = Guice.createInjector(
+        new DirectoryTotalSizeModule(numThreads, TraversalMode.QUEUE, ScanMode.NIO));
+    DirectoryTotalSizeCalculator theCalculator = injector
+        .getInstance(DirectoryTotalSizeCalculator.class);
+
+    DirectorySizeCache cache = DirectorySizeCache.open(cacheFile);
+    assertEquals(0, cache.size());
+    assertEquals(totalSize.longValue(), theCalculator.computeTotalSize(root.toString(), cache));
+    cache.save();
+
+    // A file growing in place doesn't change the modification time of its
+    // directory, so the cached size of the directory is used.
+    addOneFile(subFolder.resolve("0").toString(), 3000);
+    cache = DirectorySizeCache.open(cacheFile);
+    assertEquals(3, cache.size());
+    assertEquals(new Long(10000), cache.getTotalSize(subFolder));
+    assertEquals(totalSize.longValue(), theCalculator.computeTotalSize(root.toString(), cache));
+
+    // Adding a file changes it, so the directory is listed again.
+    addOneFile(subFolder.resolve("new").toString(), 500);
+    totalSize += 2000 + 500;
+    assertEquals(totalSize.longValue(), theCalculator.computeTotalSize(root.toString(), cache));
+    assertEquals(totalSize, cache.getTotalSize(root));
+
+    // So does removing a directory, which is then removed from the cache.
+    Files.delete(otherFolder);
+    assertEquals(totalSize.longValue(), theCalculator.computeTotalSize(root.toString(), cache));
+    assertEquals(2, cache.size());
+    assertEquals(null, cache.getTotalSize(otherFolder));
+    cache.save();
+    assertEquals(2, DirectorySizeCache.open(cacheFile).size());
+
+    // The "FILE" mode follows a symbolic link to a directory outside of the
+    // tree, which the cache should keep by its real path.
+    Path linkTarget = cacheFolder.newFolder("linkTarget").toPath().toRealPath();
+    addOneFile(linkTarget.resolve("file").toString(), 1000);
+    Files.createSymbolicLink(root.resolve("link"), linkTarget);
+    Files.setLastModifiedTime(root, oldTime);
+    DirectoryTotalSizeCalculator fileCalculator = Guice.createInjector(
+        new DirectoryTotalSizeModule(numThreads, TraversalMode.QUEUE, ScanMode.FILE))
+        .getInstance(DirectoryTotalSizeCalculator.class);
+    totalSize += 1000;
+    assertEquals(totalSize.longValue(), fileCalculator.computeTotalSize(root.toString()));
+    assertEquals(totalSize.longValue(), fileCalculator.computeTotalSize(root.toString(), cache));
+    assertEquals(new Long(1000), cache.getTotalSize(linkTarget));
+    cache.save();
+    // The sub-directories of the root are taken from the cache this time.
+    cache = DirectorySizeCache.open(cacheFile);
+    assertEquals(totalSize.longValue(), fileCalculator.computeTotalSize(root.toString(), cache));
+
+    // Saving after a run which changed nothing doesn't touch the file, and a
+    // torn record at the end of the file is dropped.
+    long fileSize = Files.size(cacheFile);
+    cache.save();
+    assertEquals(fileSize, Files.size(cacheFile));
+    Files.write(cacheFile, new byte[] { 1, 0, 10, 'x' }, StandardOpenOption.APPEND);
+    cache = DirectorySizeCache.open(cacheFile);
+    assertEquals(3, cache.size());
+    assertEquals(totalSize, cache.getTotalSize(root));
+  }
+
+  /**
+   * Wait for the total size of the watched directory to become "expected".
+   */
+  private void assertTotalSizeBecomes(long expected, DirectorySizeWatcher watcher)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (watcher.getTotalSize() != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, watcher.getTotalSize());
+  }
+
+  /**
+   * Test "watchTotalSize"
+   * 
+   * @throws IOException
+   * @throws InterruptedException 
+   */
+  @Test
+  public void testWatchTotalSize() throws IOException, InterruptedException {
+    Long totalSize = prepareTempFolder();
+    Path root = Paths.get(folder.getRoot().getCanonicalPath());
+    Path subFolder = root.resolve(subFolderName);
+    Injector injector = Guice.createInjector(new DirectoryTotalSizeModule(numThreads));
+    DirectoryTotalSizeCalculator theCalculator = injector
+        .getInstance(DirectoryTotalSizeCalculator.class);
+    try (DirectorySizeWatcher watcher = theCalculator.watchTotalSize(root.toString())) {
+      assertEquals(totalSize.longValue(), watcher.getTotalSize());
+      assertEquals(totalSize.longValue(), theCalculator.getTotalSize());
+      assertEquals(new Long(10000), watcher.getTotalSize(subFolder));
+
+      addOneFile(subFolder.resolve("new").toString(), 500);
+      assertTotalSizeBecomes(totalSize += 500, watcher);
+      addOneFile(subFolder.resolve("0").toString(), 3000);
+      assertTotalSizeBecomes(totalSize += 2000, watcher);
+      Files.delete(subFolder.resolve("1"));
+      assertTotalSizeBecomes(totalSize -= 1000, watcher);
+      assertEquals(new Long(11500), watcher.getTotalSize(subFolder));
+
+      Path newFolder = Files.createDirectories(subFolder.resolve("a/b"));
+      addOneFile(newFolder.resolve("file").toString(), 700);
+      assertTotalSizeBecomes(totalSize += 700, watcher);
+      addOneFile(newFolder.resolve("file2").toString(), 300);
+      assertTotalSizeBecomes(totalSize += 300, watcher);
+      assertEquals(new Long(1000), watcher.getTotalSize(newFolder));
+
+      Files.delete(newFolder.resolve("file"));
+      Files.delete(newFolder.resolve("file2"));
+      Files.delete(newFolder);
+      Files.delete(newFolder.getParent());
+      assertTotalSizeBecomes(totalSize -= 1000, watcher);
+      long deadline = System.currentTimeMillis() + 10000;
+      while (watcher.getTotalSize(newFolder) != null && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(null, watcher.getTotalSize(newFolder));
+      assertEquals(totalSize.longValue(), watcher.getTotalSize());
+    }
+  }
+
+  /**
+   * Test "computeTotalSize" in the "VIRTUAL_THREADS" mode, with fewer
+   * directories listed at once than there are directories.
+   * 
+   * @throws IOException
+   * @throws InterruptedException 
+   */
+  @Test
+  public void testGetTotalSizeByVirtualThreads() throws IOException, InterruptedException {
+    File folderLocationFile = folder.getRoot();
+    Long totalSize = prepareTempWideDirectory() + perpareTempDeepDirectory();
+    for (ScanMode scanMode : ScanMode.values()) {
+      Injector injector = Guice.createInjector(new DirectoryTotalSizeModule(
+          numThreads, TraversalMode.VIRTUAL_THREADS, scanMode, 2));
+      DirectoryTotalSizeCalculator theCalculator = injector
+          .getInstance(DirectoryTotalSizeCalculator.class);
+      assertEquals(totalSize,
+          new Long(theCalculator.computeTotalSize(folderLocationFile.getCanonicalPath())));
+      assertEquals(totalSize.longValue(), theCalculator.getTotalSize());
+    }
+  }
+
+  /**
+   * Test "DirectorySizeService", with nested and repeated directories in a
+   * batch, and concurrent requests.
+   * 
+   * @throws IOException
+   * @throws InterruptedException 
+   * @throws ExecutionException 
+   * @throws TimeoutException 
+   */
+  @Test
+  public void testDirectorySizeService()
+      throws IOException, InterruptedException, ExecutionException, TimeoutException {
+    Long totalSize = prepareTempFolder() + perpareTempDeepDirectory();
+    String root = folder.getRoot().getCanonicalPath();
+    String subFolder = root + "/" + subFolderName;
+    String deepFolder = root + "/" + subFolderName + "0/" + subFolderName + "1";
+    String missingFolder = root + "/missing";
+    Injector injector = Guice.createInjector(new DirectoryTotalSizeModule(numThreads));
+    final DirectorySizeService service = injector.getInstance(DirectorySizeService.class);
+    assertEquals(service, injector.getInstance(DirectorySizeService.class));
+
+    Map<String, CompletableFuture<Long>> results = service.submitAll(
+        Arrays.asList(subFolder, root, deepFolder, root + "/.", missingFolder, root));
+    assertEquals(5, results.size());
+    assertEquals(totalSize, results.get(root).get());
+    assertEquals(totalSize, results.get(root + "/.").get());
+    assertEquals(new Long(10000), results.get(subFolder).get());
+    assertEquals(new Long(9000), results.get(deepFolder).get());
+    try {
+      results.get(missingFolder).get();
+      assertEquals("an ExecutionException", "no exception");
+    } catch (ExecutionException e) {
+      assertEquals(IllegalArgumentException.class, e.getCause().getClass());
+    }
+
+    List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+    for (int i = 0; i < 20; ++i) {
+      futures.add(service.submit((i % 2 == 0) ? root : subFolder));
+    }
+    for (int i = 0; i < futures.size(); ++i) {
+      assertEquals((i % 2 == 0) ? totalSize : new Long(10000), futures.get(i).get());
+    }
+    service.close();
+
+    // Once closed, every request fails rather than waiting for a scan which
+    // will never run.
+    for (int i = 0; i < 2; ++i) {
+      try {
+        service.submit(root).get(10, TimeUnit.SECONDS);
+        assertEquals("an ExecutionException", "no exception");
+      } catch (ExecutionException e) {
+        assertEquals(RejectedExecutionException.class, e.getCause().getClass());
+      }
+    }
+  }
+
+  /**
+   * Test many threads asking "DirectorySizeService" for the same directory at
+   * once, in several rounds. The directory should be scanned once per round,
+   * its scan being in flight until every request of the round is made.
+   * 
+   * @throws IOException
+   * @throws InterruptedException 
+   * @throws ExecutionException 
+   */
+  @Test
+  public void testConcurrentDirectorySizeService()
+      throws IOException, InterruptedException, ExecutionException {
+    final Long totalSize = prepareTempFolder();
+    final String root = folder.getRoot().getCanonicalPath();
+    final Path rootPath = Paths.get(root);
+    final AtomicInteger rootScans = new AtomicInteger(0);
+    final AtomicReference<CountDownLatch> scanGate = new AtomicReference<CountDownLatch>();
+    final DirectorySizeService service = new DirectorySizeService(numThreads,
+        new FileDirectoryScanner() {
+          @Override
+          public long scan(Path directory, List<Path> subDirectories,
+              ObjLongConsumer<Path> files) throws IOException {
+            if (directory.equals(rootPath)) {
+              rootScans.incrementAndGet();
+              try {
+                // Keep the scan in flight until every request of the round is made.
+                scanGate.get().await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+            return super.scan(directory, subDirectories, files);
+          }
+        });
+
+    for (int round = 1; round <= 20; ++round) {
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch allSubmitted = new CountDownLatch(1);
+      scanGate.set(allSubmitted);
+      List<Thread> threads = new ArrayList<Thread>();
+      final List<CompletableFuture<Long>> futures =
+          Collections.synchronizedList(new ArrayList<CompletableFuture<Long>>());
+      for (int i = 0; i < 8; ++i) {
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+            } catch (InterruptedException e) {
+              return;
+            }
+            futures.add(service.submit(root));
+          }
+        });
+        thread.start();
+        threads.add(thread);
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      allSubmitted.countDown();
+      assertEquals(8, futures.size());
+      for (CompletableFuture<Long> future : futures) {
+        assertEquals(totalSize, future.get());
+      }
+      assertEquals(round, rootScans.get());
+    }
+    service.close();
+  }
+
+  /**
+   * Test "computeFileStatistics"
+   * 
+   * @throws IOException
+   */
+  @Test
+  public void testFileStatistics() throws IOException {
+    Long totalSize = prepareTempFolder() + perpareTempDeepDirectory();
+    addOneFile(folder.newFile("notes.TXT"), 3);
+    addOneFile(folder.newFile("empty.txt"), 0);
+    totalSize += 3;
+    for (ScanMode scanMode : ScanMode.values()) {
+      Injector injector = Guice.createInjector(
+          new DirectoryTotalSizeModule(numThreads, TraversalMode.QUEUE, scanMode));
+      DirectoryTotalSizeCalculator theCalculator = injector
+          .getInstance(DirectoryTotalSizeCalculator.class);
+      FileStatistics statistics =
+          theCalculator.computeFileStatistics(folder.getRoot().getCanonicalPath());
+      assertEquals(totalSize.longValue(), statistics.getTotalSize());
+      assertEquals(totalSize.longValue(), theCalculator.getTotalSize());
+      assertEquals(23, statistics.getFileCount());
+      assertEquals(12, statistics.getDirectoryCount());
+      long[] sizeHistogram = statistics.getSizeHistogram();
+      assertEquals(1, sizeHistogram[0]);
+      assertEquals(1, sizeHistogram[2]);
+      // 512 <= 1000 < 1024
+      assertEquals(21, sizeHistogram[10]);
+      assertEquals(new Long(3), statistics.getBytesByExtension().get("txt"));
+      assertEquals(new Long(totalSize - 3), statistics.getBytesByExtension().get(""));
+      assertEquals(2, statistics.getBytesByExtension().size());
+    }
+  }
 }
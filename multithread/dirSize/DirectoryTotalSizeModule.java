@@ -16,9 +16,19 @@ import java.util.concurrent.Callable;
  * 
  */
 public class DirectoryTotalSizeModule extends AbstractModule {
+  /**
+   * The default number of directories listed at once in the "VIRTUAL_THREADS"
+   * mode, which should be more than the number of requests the storage serves
+   * at once.
+   */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
   final private Integer numThreads; 
   final private boolean fakeTimeOption;
   final private long fakeTimeStep;
+  final private TraversalMode traversalMode;
+  final private ScanMode scanMode;
+  final private Integer maxInFlight;
 
   /**
    * 
@@ -29,18 +39,61 @@ public class DirectoryTotalSizeModule extends AbstractModule {
    * @param fakeTimeStep
    *          it only matters if "fakeTimeOption" is "true". Used to construct a
    *          fake time object.
+   * @param traversalMode
+   *          the way to walk over the directory tree.
+   * @param scanMode
+   *          the way to read the entries of each directory.
+   * @param maxInFlight
+   *          the largest number of directories listed at once in the
+   *          "VIRTUAL_THREADS" mode.
    */
-  public DirectoryTotalSizeModule(int numThreads, boolean fakeTimeOption, long fakeTimeStep) {
+  public DirectoryTotalSizeModule(int numThreads, boolean fakeTimeOption, long fakeTimeStep,
+      TraversalMode traversalMode, ScanMode scanMode, int maxInFlight) {
     if (numThreads <= 0) {
       throw new IllegalArgumentException("The number of threads allowed to use should be positive");
     }
+    if (maxInFlight <= 0) {
+      throw new IllegalArgumentException("The number of directories listed at once should be positive");
+    }
     this.numThreads = numThreads;
     this.fakeTimeOption = fakeTimeOption;
     this.fakeTimeStep = fakeTimeStep;
+    this.traversalMode = traversalMode;
+    this.scanMode = scanMode;
+    this.maxInFlight = maxInFlight;
+  }
+
+  public DirectoryTotalSizeModule(int numThreads, boolean fakeTimeOption, long fakeTimeStep,
+      TraversalMode traversalMode, ScanMode scanMode) {
+    this(numThreads, fakeTimeOption, fakeTimeStep, traversalMode, scanMode,
+        DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  public DirectoryTotalSizeModule(int numThreads, boolean fakeTimeOption, long fakeTimeStep,
+      TraversalMode traversalMode) {
+    this(numThreads, fakeTimeOption, fakeTimeStep, traversalMode, ScanMode.FILE);
+  }
+
+  public DirectoryTotalSizeModule(int numThreads, boolean fakeTimeOption, long fakeTimeStep) {
+    this(numThreads, fakeTimeOption, fakeTimeStep, TraversalMode.QUEUE);
+  }
+
+  public DirectoryTotalSizeModule(int numThreads, TraversalMode traversalMode,
+      ScanMode scanMode, int maxInFlight) {
+    this(numThreads, false, 0, traversalMode, scanMode, maxInFlight);
+  }
+
+  public DirectoryTotalSizeModule(int numThreads, TraversalMode traversalMode,
+      ScanMode scanMode) {
+    this(numThreads, traversalMode, scanMode, DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  public DirectoryTotalSizeModule(int numThreads, TraversalMode traversalMode) {
+    this(numThreads, traversalMode, ScanMode.FILE);
   }
 
   public DirectoryTotalSizeModule(int numThreads) {
-    this(numThreads, false, 0);
+    this(numThreads, TraversalMode.QUEUE);
   }
 
   public DirectoryTotalSizeModule() {
@@ -52,6 +105,15 @@ public class DirectoryTotalSizeModule extends AbstractModule {
     bind(Integer.class)
     .annotatedWith(DirectoryTotalSizeCalculator.NumThreads.class)
     .toInstance(numThreads);
+    bind(Integer.class)
+    .annotatedWith(DirectoryTotalSizeCalculator.MaxInFlight.class)
+    .toInstance(maxInFlight);
+    bind(TraversalMode.class).toInstance(traversalMode);
+    if (scanMode == ScanMode.NIO) {
+      bind(DirectoryScanner.class).to(NioDirectoryScanner.class);
+    } else {
+      bind(DirectoryScanner.class).to(FileDirectoryScanner.class);
+    }
     if (fakeTimeOption) {
       bind(CurrentTime.class).toInstance(new FakeTime(fakeTimeStep));
     } else {
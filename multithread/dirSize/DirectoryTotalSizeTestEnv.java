@@ -21,6 +21,9 @@ public class DirectoryTotalSizeTestEnv extends AbstractModule {
   protected void configure() {
     install(new GuiceBerryModule());
     bind(Integer.class).annotatedWith(DirectoryTotalSizeCalculator.NumThreads.class).toInstance(numThreads);
+    bind(Integer.class).annotatedWith(DirectoryTotalSizeCalculator.MaxInFlight.class)
+        .toInstance(DirectoryTotalSizeModule.DEFAULT_MAX_IN_FLIGHT);
+    bind(TraversalMode.class).toInstance(TraversalMode.QUEUE);
     if (fakeTimeOption) {
       bind(CurrentTime.class).toInstance(new FakeTime(fakeTimeStep));
     } else {
@@ -0,0 +1,39 @@
+package dirSize;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * "DirectoryScanner" of the "FILE" mode, going through "java.io.File".
+ */
+public class FileDirectoryScanner implements DirectoryScanner {
+  @Override
+  public long scan(Path directory, List<Path> subDirectories, ObjLongConsumer<Path> files)
+      throws IOException {
+    File[] allFiles = directory.toFile().listFiles();
+    if (allFiles == null) {
+      throw new IOException("Can't list the directory " + directory);
+    }
+    long directorySize = 0;
+    for (File file : allFiles) {
+      if (file.isFile()) {
+        long fileSize = file.length();
+        directorySize += fileSize;
+        if (files != null) {
+          files.accept(file.toPath(), fileSize);
+        }
+      } else if (file.isDirectory() && file.canRead()) {
+        try {
+          subDirectories.add(Paths.get(file.getCanonicalPath()));
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    return directorySize;
+  }
+}
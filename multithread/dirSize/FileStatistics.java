@@ -0,0 +1,144 @@
+package dirSize;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * The inventory of a directory tree made by
+ * "DirectoryTotalSizeCalculator.computeFileStatistics": the numbers of files
+ * and directories, how many files there are of each size, rounded to a power
+ * of two, and how many bytes the files of each extension take.
+ */
+public class FileStatistics {
+  /** Bucket "i" of the histogram counts the files of [2^(i-1), 2^i) bytes. */
+  public static final int NUM_SIZE_BUCKETS = 64;
+
+  private long totalSize = 0;
+  private long fileCount = 0;
+  private long directoryCount = 0;
+  private final long[] sizeHistogram = new long[NUM_SIZE_BUCKETS];
+  private final Map<String, Long> bytesByExtension = new HashMap<String, Long>();
+
+  FileStatistics() {
+  }
+
+  /**
+   * @return The total size of the files.
+   */
+  public long getTotalSize() {
+    return totalSize;
+  }
+
+  public long getFileCount() {
+    return fileCount;
+  }
+
+  /**
+   * @return The number of directories, including the root.
+   */
+  public long getDirectoryCount() {
+    return directoryCount;
+  }
+
+  /**
+   * @return The number of files in each size bucket: bucket 0 counts the
+   *         empty files, and bucket "i" the files of at least 2^(i-1) bytes and
+   *         less than 2^i bytes.
+   */
+  public long[] getSizeHistogram() {
+    return sizeHistogram.clone();
+  }
+
+  /**
+   * @return The total size of the files of each extension, in lower case and
+   *         without the dot. The files without one are under "".
+   */
+  public Map<String, Long> getBytesByExtension() {
+    return Collections.unmodifiableMap(bytesByExtension);
+  }
+
+  /**
+   * @return the size bucket of a file of "size" bytes.
+   */
+  static int sizeBucket(long size) {
+    return Math.min(NUM_SIZE_BUCKETS - 1, NUM_SIZE_BUCKETS - Long.numberOfLeadingZeros(size));
+  }
+
+  /**
+   * @return the extension of a file name as in "getBytesByExtension".
+   */
+  static String extension(String fileName) {
+    int dot = fileName.lastIndexOf('.');
+    return (dot <= 0) ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+
+  void addFile(Path file, long size) {
+    totalSize += size;
+    ++fileCount;
+    ++sizeHistogram[sizeBucket(size)];
+    bytesByExtension.merge(extension(file.getFileName().toString()), size, Long::sum);
+  }
+
+  void addDirectory() {
+    ++directoryCount;
+  }
+
+  void add(FileStatistics other) {
+    totalSize += other.totalSize;
+    fileCount += other.fileCount;
+    directoryCount += other.directoryCount;
+    for (int i = 0; i < NUM_SIZE_BUCKETS; ++i) {
+      sizeHistogram[i] += other.sizeHistogram[i];
+    }
+    for (Map.Entry<String, Long> entry : other.bytesByExtension.entrySet()) {
+      bytesByExtension.merge(entry.getKey(), entry.getValue(), Long::sum);
+    }
+  }
+
+  /**
+   * Collects the statistics during a run. Each worker thread only updates its
+   * own "FileStatistics", so that the threads share no counter, and these are
+   * added up by "build" once the run is done.
+   */
+  static class Collector implements ScanCollector {
+    private final Queue<FileStatistics> allStatistics = new ConcurrentLinkedQueue<FileStatistics>();
+    private final ThreadLocal<FileStatistics> statistics = new ThreadLocal<FileStatistics>() {
+      @Override
+      protected FileStatistics initialValue() {
+        FileStatistics workerStatistics = new FileStatistics();
+        allStatistics.add(workerStatistics);
+        return workerStatistics;
+      }
+    };
+    private final ObjLongConsumer<Path> files = new ObjLongConsumer<Path>() {
+      @Override
+      public void accept(Path file, long size) {
+        statistics.get().addFile(file, size);
+      }
+    };
+
+    @Override
+    public ObjLongConsumer<Path> files() {
+      return files;
+    }
+
+    @Override
+    public void directoryDone(Path directory, long totalSize) {
+      statistics.get().addDirectory();
+    }
+
+    FileStatistics build() {
+      FileStatistics total = new FileStatistics();
+      for (FileStatistics workerStatistics : allStatistics) {
+        total.add(workerStatistics);
+      }
+      return total;
+    }
+  }
+}
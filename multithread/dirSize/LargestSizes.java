@@ -0,0 +1,53 @@
+package dirSize;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the "limit" largest of the entries offered to it, in a min-heap whose
+ * head is the smallest entry kept. Not thread-safe.
+ */
+final class LargestSizes {
+  static final Comparator<SizeEntry> BY_SIZE = new Comparator<SizeEntry>() {
+    @Override
+    public int compare(SizeEntry a, SizeEntry b) {
+      return Long.compare(a.getSize(), b.getSize());
+    }
+  };
+
+  private final int limit;
+  private final PriorityQueue<SizeEntry> heap;
+
+  LargestSizes(int limit) {
+    this.limit = limit;
+    this.heap = new PriorityQueue<SizeEntry>(Math.max(1, limit), BY_SIZE);
+  }
+
+  void offer(Path path, long size) {
+    if (heap.size() < limit) {
+      heap.add(new SizeEntry(path, size));
+    } else if (limit > 0 && size > heap.peek().getSize()) {
+      heap.poll();
+      heap.add(new SizeEntry(path, size));
+    }
+  }
+
+  void addAll(LargestSizes other) {
+    for (SizeEntry entry : other.heap) {
+      offer(entry.getPath(), entry.getSize());
+    }
+  }
+
+  /**
+   * @return the entries kept, largest first.
+   */
+  List<SizeEntry> toList() {
+    List<SizeEntry> entries = new ArrayList<SizeEntry>(heap);
+    Collections.sort(entries, Collections.reverseOrder(BY_SIZE));
+    return entries;
+  }
+}
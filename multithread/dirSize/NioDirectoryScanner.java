@@ -0,0 +1,66 @@
+package dirSize;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * "DirectoryScanner" of the "NIO" mode. "Files.walkFileTree" with a maximum
+ * depth of one hands every entry of the directory to "visitFile" together
+ * with its attributes, which it takes from the listing of the directory when
+ * the platform provides them there, or else reads with one call.
+ */
+public class NioDirectoryScanner implements DirectoryScanner {
+  @Override
+  public long scan(Path directory, List<Path> subDirectories, ObjLongConsumer<Path> files)
+      throws IOException {
+    EntryVisitor visitor = new EntryVisitor(directory, subDirectories, files);
+    Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, visitor);
+    return visitor.directorySize;
+  }
+
+  private static class EntryVisitor extends SimpleFileVisitor<Path> {
+    private final Path directory;
+    private final List<Path> subDirectories;
+    private final ObjLongConsumer<Path> files;
+    private long directorySize = 0;
+
+    EntryVisitor(Path directory, List<Path> subDirectories, ObjLongConsumer<Path> files) {
+      this.directory = directory;
+      this.subDirectories = subDirectories;
+      this.files = files;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+      if (attributes.isRegularFile()) {
+        directorySize += attributes.size();
+        if (files != null) {
+          files.accept(file, attributes.size());
+        }
+      } else if (attributes.isDirectory()) {
+        subDirectories.add(file);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * Skip the entries removed or made unreadable since the directory was
+     * listed, but not the directory itself.
+     */
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+      if (file.equals(directory)) {
+        throw e;
+      }
+      return FileVisitResult.CONTINUE;
+    }
+  }
+}
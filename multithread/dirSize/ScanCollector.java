@@ -0,0 +1,21 @@
+package dirSize;
+
+import java.nio.file.Path;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Collects more than the total size during a scan by
+ * "DirectoryTotalSizeCalculator.DirectorySizeTask". Called from all the
+ * worker threads at once.
+ */
+interface ScanCollector {
+  /**
+   * @return the consumer to hand the files of a directory to.
+   */
+  ObjLongConsumer<Path> files();
+
+  /**
+   * Record the total size of a directory whose subtree is done.
+   */
+  void directoryDone(Path directory, long totalSize);
+}
@@ -0,0 +1,22 @@
+package dirSize;
+
+/**
+ * The ways "DirectoryTotalSizeCalculator" can read the entries of a
+ * directory.
+ */
+public enum ScanMode {
+  /**
+   * With "java.io.File": "isFile", "length", "isDirectory" and "canRead" on
+   * every entry, each of them a separate system call, plus "getCanonicalPath"
+   * for every sub-directory. Symbolic links to directories are followed.
+   */
+  FILE,
+
+  /**
+   * With "Files.walkFileTree" one level deep, which reads the type and size of
+   * each entry at once: one "lstat" per entry on Unix, and none at all on
+   * Windows where the listing of the directory already holds them. Symbolic
+   * links are not followed, as in "du".
+   */
+  NIO
+}
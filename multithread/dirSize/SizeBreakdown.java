@@ -0,0 +1,137 @@
+package dirSize;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * The result of "DirectoryTotalSizeCalculator.computeSizeBreakdown": the
+ * total size of every directory of the tree, as "du" prints them, and the
+ * largest directories and files.
+ */
+public class SizeBreakdown {
+  private final long totalSize;
+  private final Map<Path, Long> directorySizes;
+  private final List<SizeEntry> largestDirectories;
+  private final List<SizeEntry> largestFiles;
+
+  SizeBreakdown(long totalSize, Map<Path, Long> directorySizes,
+      List<SizeEntry> largestDirectories, List<SizeEntry> largestFiles) {
+    this.totalSize = totalSize;
+    this.directorySizes = Collections.unmodifiableMap(directorySizes);
+    this.largestDirectories = Collections.unmodifiableList(largestDirectories);
+    this.largestFiles = Collections.unmodifiableList(largestFiles);
+  }
+
+  /**
+   * @return The total size of the root directory.
+   */
+  public long getTotalSize() {
+    return totalSize;
+  }
+
+  /**
+   * @return The total size of each directory of the tree, including the root.
+   */
+  public Map<Path, Long> getDirectorySizes() {
+    return directorySizes;
+  }
+
+  /**
+   * @return The largest directories by total size, largest first. The root
+   *         directory is one of them.
+   */
+  public List<SizeEntry> getLargestDirectories() {
+    return largestDirectories;
+  }
+
+  /**
+   * @return The largest files, largest first.
+   */
+  public List<SizeEntry> getLargestFiles() {
+    return largestFiles;
+  }
+
+  /**
+   * Collects the breakdown during a run. Each worker thread offers the
+   * directories and files it finds to its own "LargestSizes", so that they
+   * don't contend, and these are merged by "build" once the run is done.
+   */
+  static class Collector implements ScanCollector {
+    private final int topN;
+    private final DirectorySizeListener listener;
+    private final Map<Path, Long> directorySizes = new ConcurrentHashMap<Path, Long>();
+    private final Queue<WorkerLargest> allLargest = new ConcurrentLinkedQueue<WorkerLargest>();
+    private final ThreadLocal<WorkerLargest> largest = new ThreadLocal<WorkerLargest>() {
+      @Override
+      protected WorkerLargest initialValue() {
+        WorkerLargest workerLargest = new WorkerLargest(topN);
+        allLargest.add(workerLargest);
+        return workerLargest;
+      }
+    };
+    private final ObjLongConsumer<Path> files = new ObjLongConsumer<Path>() {
+      @Override
+      public void accept(Path file, long size) {
+        largest.get().files.offer(file, size);
+      }
+    };
+
+    /**
+     * @param topN
+     *          the number of largest directories and files to keep.
+     * @param listener
+     *          told about each finished directory, or null.
+     */
+    Collector(int topN, DirectorySizeListener listener) {
+      if (topN < 0) {
+        throw new IllegalArgumentException("The number of largest entries should not be negative");
+      }
+      this.topN = topN;
+      this.listener = listener;
+    }
+
+    @Override
+    public ObjLongConsumer<Path> files() {
+      return files;
+    }
+
+    @Override
+    public void directoryDone(Path directory, long totalSize) {
+      directorySizes.put(directory, totalSize);
+      largest.get().directories.offer(directory, totalSize);
+      if (listener != null) {
+        listener.onDirectoryDone(directory, totalSize);
+      }
+    }
+
+    SizeBreakdown build(long totalSize) {
+      LargestSizes largestDirectories = new LargestSizes(topN);
+      LargestSizes largestFiles = new LargestSizes(topN);
+      for (WorkerLargest workerLargest : allLargest) {
+        largestDirectories.addAll(workerLargest.directories);
+        largestFiles.addAll(workerLargest.files);
+      }
+      return new SizeBreakdown(totalSize, directorySizes, largestDirectories.toList(),
+          largestFiles.toList());
+    }
+  }
+
+  /**
+   * The largest directories and files found by one worker thread.
+   */
+  private static class WorkerLargest {
+    final LargestSizes directories;
+    final LargestSizes files;
+
+    WorkerLargest(int topN) {
+      this.directories = new LargestSizes(topN);
+      this.files = new LargestSizes(topN);
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package dirSize;
+
+import java.nio.file.Path;
+
+/**
+ * The size of a file, or the total size of a directory.
+ */
+public final class SizeEntry {
+  private final Path path;
+  private final long size;
+
+  public SizeEntry(Path path, long size) {
+    this.path = path;
+    this.size = size;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return size + "\t" + path;
+  }
+}
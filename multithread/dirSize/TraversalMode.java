@@ -0,0 +1,33 @@
+package dirSize;
+
+/**
+ * The ways "DirectoryTotalSizeCalculator" can walk over a directory tree.
+ */
+public enum TraversalMode {
+  /**
+   * The worker threads take the names of the directories from one shared
+   * queue and put the names of their sub-directories back into it. Once the
+   * last directory is done, "numThreads" special names are put into the queue
+   * to stop the worker threads.
+   */
+  QUEUE,
+
+  /**
+   * Each directory is a "RecursiveTask" forking one task per sub-directory
+   * and adding up their sizes. Every thread of the "ForkJoinPool" pushes and
+   * pops its own tasks from its own deque, and only steals from the others
+   * when it runs out of them. The run is done when the task of the root
+   * directory returns, so no special names or shared counters are needed.
+   */
+  FORK_JOIN,
+
+  /**
+   * Each directory is listed by a task of its own, on a virtual thread of its
+   * own, which submits one task per sub-directory and returns without waiting
+   * for them. A thread blocked on a slow file system then costs almost
+   * nothing, so the number of listings going on at once is bounded by
+   * "maxInFlight" rather than by "numThreads". Without virtual threads (before
+   * Java 21), the tasks run on "maxInFlight" platform threads.
+   */
+  VIRTUAL_THREADS
+}
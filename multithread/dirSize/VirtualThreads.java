@@ -0,0 +1,52 @@
+package dirSize;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Makes the executors of the "VIRTUAL_THREADS" mode. Virtual threads are only
+ * there from Java 21 on, so "Executors.newVirtualThreadPerTaskExecutor" is
+ * looked up by reflection, and a pool of platform threads is used where it is
+ * missing.
+ */
+final class VirtualThreads {
+  private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findFactory();
+
+  private VirtualThreads() {
+  }
+
+  private static Method findFactory() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return true if the executors start a virtual thread per task.
+   */
+  static boolean isAvailable() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * @param numPlatformThreads
+   *          the number of platform threads to use if there are no virtual
+   *          threads.
+   * @return An executor starting a virtual thread per task, or else a fixed
+   *         pool of "numPlatformThreads" threads.
+   */
+  static ExecutorService newExecutor(int numPlatformThreads) {
+    if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+      try {
+        return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+      } catch (IllegalAccessException | InvocationTargetException e) {
+        // Fall back to the platform threads.
+      }
+    }
+    return Executors.newFixedThreadPool(numPlatformThreads);
+  }
+}
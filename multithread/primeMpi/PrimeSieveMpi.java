@@ -0,0 +1,183 @@
+package primeMpi;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.BindingAnnotation;
+
+import mpi.MPI;
+
+import primeNumberCalculation.BasePrimeCache;
+import primeNumberCalculation.PrimeNumberCalculator;
+import primeNumberCalculation.SieveFlags;
+import primeNumberCalculation.WheelPrimeNumberFlags;
+
+import java.lang.annotation.Target;
+import java.lang.annotation.Retention;
+
+/**
+ * Counts the prime numbers in [0, upperBound) with one process per MPI rank.
+ * The instance with rank 0 finds the base primes up to the square root of
+ * "upperBound" and broadcasts them. Each instance then sieves its own
+ * contiguous block of the range, segment by segment, and the counts and the
+ * largest prime numbers are reduced back to the instance with rank 0.
+ *
+ * Run it locally with e.g. "mpjrun.sh -np 4 -dev multicore primeMpi.PrimeSieveMpi
+ * 1000000000", or across nodes with the "niodev" or "hybdev" devices.
+ */
+public class PrimeSieveMpi {
+  public static final long DEFAULT_UPPER_BOUND = 1000000000L;
+  /** Numbers per segment, a multiple of 30 whose wheel flags take 32KB. */
+  static final int SEGMENT_LENGTH = 30 * (1 << 15);
+
+  private final int rank;
+  private final int size;
+  private final long upperBound;
+
+  /**
+   * The program will count the prime numbers less than the upper bound given
+   * in the command line, or "DEFAULT_UPPER_BOUND", with the number of
+   * processes handled by MPI.
+   * @param args
+   */
+  public static void main(String[] args) {
+    String[] appArgs = MPI.Init(args);
+    int rank = MPI.COMM_WORLD.Rank();
+    int size = MPI.COMM_WORLD.Size();
+    long upperBound = (appArgs != null && appArgs.length > 0)
+        ? Long.parseLong(appArgs[0]) : DEFAULT_UPPER_BOUND;
+    Injector injector = Guice.createInjector(new PrimeSieveMpiModule(rank, size, upperBound));
+    injector.getInstance(PrimeSieveMpi.class).run();
+    MPI.Finalize();
+  }
+
+  @BindingAnnotation @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
+  public @interface Rank {}
+  @BindingAnnotation @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
+  public @interface Size {}
+  @BindingAnnotation @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
+  public @interface UpperBound {}
+
+  /**
+   * @param rank: The rank assigned by MPI.
+   * @param size: The number of processes used in the MPI program.
+   * @param upperBound: The upper bound (excluded) of the numbers to sieve. It
+   *     should be no larger than "PrimeNumberCalculator.MAX_RANGE_UPPER_BOUND".
+   */
+  @Inject
+  public PrimeSieveMpi(@Rank Integer rank, @Size Integer size, @UpperBound Long upperBound) {
+    if (upperBound < 0 || upperBound > PrimeNumberCalculator.MAX_RANGE_UPPER_BOUND) {
+      throw new IllegalArgumentException("The upper bound should be in [0, "
+          + PrimeNumberCalculator.MAX_RANGE_UPPER_BOUND + "]");
+    }
+    this.rank = rank;
+    this.size = size;
+    this.upperBound = upperBound;
+  }
+
+  /**
+   * The method running the sieve. The instance with rank 0 prints the number
+   * of prime numbers found and the largest one.
+   */
+  public void run() {
+    long startTime = System.currentTimeMillis();
+    int[] basePrimes = broadcastBasePrimes();
+
+    long[] localResult = sieveBlock(basePrimes, blockLowerBound(rank, size, upperBound),
+        blockLowerBound(rank + 1, size, upperBound));
+
+    long[] count = new long[1];
+    long[] largest = new long[1];
+    MPI.COMM_WORLD.Reduce(localResult, 0, count, 0, 1, MPI.LONG, MPI.SUM, 0);
+    MPI.COMM_WORLD.Reduce(localResult, 1, largest, 0, 1, MPI.LONG, MPI.MAX, 0);
+    if (rank == 0) {
+      System.out.println("There are " + count[0] + " prime numbers less than " + upperBound
+          + ", the largest is " + largest[0] + ". Done in "
+          + (System.currentTimeMillis() - startTime) + " ms with " + size + " processes.");
+    }
+  }
+
+  /**
+   * The instance with rank 0 finds the base primes, then sends out their
+   * number and the base primes themselves to every other instance.
+   * @return: the prime numbers up to the square root of "upperBound".
+   */
+  private int[] broadcastBasePrimes() {
+    int[] numBasePrimes = new int[1];
+    int[] basePrimes = null;
+    if (rank == 0) {
+      basePrimes = new BasePrimeCache().primesUpTo(sqrtFloor(upperBound));
+      numBasePrimes[0] = basePrimes.length;
+    }
+    MPI.COMM_WORLD.Bcast(numBasePrimes, 0, 1, MPI.INT, 0);
+    if (rank != 0) {
+      basePrimes = new int[numBasePrimes[0]];
+    }
+    MPI.COMM_WORLD.Bcast(basePrimes, 0, numBasePrimes[0], MPI.INT, 0);
+    return basePrimes;
+  }
+
+  /**
+   * The blocks are ceil(upperBound / size) numbers rounded up to a multiple of
+   * 30, so that they start on a wheel boundary and the "size" of them cover
+   * the whole range. The last blocks may be shorter, or even empty.
+   * @return: the lower bound (included) of the block of the instance with
+   * "rank", which is also the upper bound (excluded) of the block of the
+   * instance with rank "rank - 1".
+   */
+  static long blockLowerBound(int rank, int size, long upperBound) {
+    long blockLength = ((upperBound + size - 1) / size + 29) / 30 * 30;
+    return Math.min(upperBound, rank * blockLength);
+  }
+
+  /**
+   * Sieve [blockLowerBound, blockUpperBound) one segment of "SEGMENT_LENGTH"
+   * numbers at a time, so that the flags being written stay in the cache.
+   * @return: the number of prime numbers in the block, and the largest one
+   * (0 if there is none).
+   */
+  static long[] sieveBlock(int[] basePrimes, long blockLowerBound, long blockUpperBound) {
+    long count = 0;
+    long largest = 0;
+    for (long segmentLowerBound = blockLowerBound; segmentLowerBound < blockUpperBound;
+        segmentLowerBound += SEGMENT_LENGTH) {
+      long segmentUpperBound = Math.min(blockUpperBound, segmentLowerBound + SEGMENT_LENGTH);
+      SieveFlags flags = new WheelPrimeNumberFlags(segmentLowerBound,
+          (int) (segmentUpperBound - segmentLowerBound));
+      int presieved = flags.presieve(segmentLowerBound, segmentUpperBound);
+      for (int prime : basePrimes) {
+        if ((long) prime * prime >= segmentUpperBound) {
+          break;
+        }
+        if (prime > presieved) {
+          flags.markMultiplesOf(prime, segmentLowerBound, segmentUpperBound);
+        }
+      }
+      for (long i = flags.nextPrime(segmentLowerBound); i < segmentUpperBound;
+          i = flags.nextPrime(i + 1)) {
+        ++count;
+        largest = i;
+      }
+    }
+    return new long[] { count, largest };
+  }
+
+  /**
+   * @return the largest integer whose square is no larger than "number".
+   */
+  private static int sqrtFloor(long number) {
+    long root = (long) Math.sqrt((double) number);
+    while (root * root > number) {
+      --root;
+    }
+    while ((root + 1) * (root + 1) <= number) {
+      ++root;
+    }
+    return (int) root;
+  }
+}
@@ -0,0 +1,28 @@
+package primeMpi;
+
+import com.google.inject.AbstractModule;
+
+public class PrimeSieveMpiModule extends AbstractModule {
+  final private Integer rank;
+  final private Integer size;
+  final private Long upperBound;
+
+  public PrimeSieveMpiModule(int rank, int size, long upperBound) {
+    this.rank = rank;
+    this.size = size;
+    this.upperBound = upperBound;
+  }
+
+  @Override
+  protected void configure() {
+      bind(Integer.class)
+          .annotatedWith(PrimeSieveMpi.Rank.class)
+          .toInstance(rank);
+      bind(Integer.class)
+          .annotatedWith(PrimeSieveMpi.Size.class)
+          .toInstance(size);
+      bind(Long.class)
+          .annotatedWith(PrimeSieveMpi.UpperBound.class)
+          .toInstance(upperBound);
+  }
+}
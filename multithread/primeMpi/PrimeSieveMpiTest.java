@@ -0,0 +1,69 @@
+package primeMpi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import primeNumberCalculation.BasePrimeCache;
+
+import java.util.Arrays;
+
+@RunWith(value = Parameterized.class)
+public class PrimeSieveMpiTest {
+  private final long upperBound;
+  private final int size;
+
+  /**
+   * Parameters are the upper bound of the sieve and the number of simulated
+   * MPI processes.
+   */
+  public PrimeSieveMpiTest(long upperBound, int size) {
+    this.upperBound = upperBound;
+    this.size = size;
+  }
+
+  /**
+   * Test that the blocks of all the ranks cover [0, upperBound) without
+   * overlapping, and that sieving each of them with "sieveBlock" gives the
+   * same prime numbers as "BasePrimeCache".
+   */
+  @Test
+  public void testSieveBlocks() {
+    int[] basePrimes = new BasePrimeCache().primesUpTo((int) Math.sqrt((double) upperBound));
+    int[] correctPrimes = new BasePrimeCache().primesUpTo((int) Math.max(upperBound - 1, 0));
+    long count = 0;
+    long largest = 0;
+    assertEquals(0, PrimeSieveMpi.blockLowerBound(0, size, upperBound));
+    for (int rank = 0; rank < size; ++rank) {
+      long blockLowerBound = PrimeSieveMpi.blockLowerBound(rank, size, upperBound);
+      long blockUpperBound = PrimeSieveMpi.blockLowerBound(rank + 1, size, upperBound);
+      assertTrue(blockLowerBound % 30 == 0 || blockLowerBound == upperBound);
+      assertTrue(blockLowerBound <= blockUpperBound);
+      long[] localResult = PrimeSieveMpi.sieveBlock(basePrimes, blockLowerBound,
+          blockUpperBound);
+      count += localResult[0];
+      largest = Math.max(largest, localResult[1]);
+    }
+    assertEquals(upperBound, PrimeSieveMpi.blockLowerBound(size, size, upperBound));
+    assertEquals(correctPrimes.length, count);
+    assertEquals((correctPrimes.length == 0) ? 0 : correctPrimes[correctPrimes.length - 1],
+        largest);
+  }
+
+  @Parameters(name = "{index}: upperBound:{0}, size:{1}")
+  public static Iterable<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+        { 243L, 4 },
+        { 121L, 4 },
+        { 30L * 7 + 1, 7 },
+        { 2L, 3 },
+        { 1000000L, 1 },
+        { 30L * 4 * 1000 + 1, 4 },
+        { 2L * PrimeSieveMpi.SEGMENT_LENGTH + 30 * 3 + 1, 3 }
+        });
+  }
+}
@@ -0,0 +1,69 @@
+package primeNumberCalculation;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the small prime numbers used as base primes by the segmented sieves,
+ * so that they are computed once and shared by all the calculators created by
+ * the same injector. The cache only grows, at least doubling each time, and
+ * readers never wait unless the cache needs to grow.
+ */
+@Singleton
+public class BasePrimeCache {
+  private volatile int[] primes;
+  private volatile int limit;
+
+  @Inject
+  public BasePrimeCache() {
+    this.primes = new int[0];
+    this.limit = 1;
+  }
+
+  /**
+   * @param limit
+   *          the upper bound (included) of the prime numbers needed.
+   * @return every prime number no larger than "limit" in increasing order. The
+   *         array may hold larger prime numbers too, and must not be modified.
+   */
+  public int[] primesUpTo(int limit) {
+    // "limit" is written after "primes", so read it first.
+    if (limit <= this.limit) {
+      return primes;
+    }
+    synchronized (this) {
+      if (limit > this.limit) {
+        int newLimit = (int) Math.min(Integer.MAX_VALUE - 1, Math.max(limit, 2L * this.limit));
+        primes = sieve(newLimit);
+        this.limit = newLimit;
+      }
+      return primes;
+    }
+  }
+
+  /**
+   * Find the prime numbers in [2, limit] with a plain sequential sieve.
+   *
+   * @param limit
+   *          the upper bound (included) of the prime numbers to find.
+   * @return the prime numbers found, in increasing order.
+   */
+  static int[] sieve(int limit) {
+    if (limit < 2) {
+      return new int[0];
+    }
+    PrimeNumberFlags flags = new PrimeNumberFlags(limit + 1);
+    for (int i = 2; (long) i * i <= limit; i = flags.nextClearBit(i + 1)) {
+      flags.markMultiples(i * i, limit + 1, i);
+    }
+    // There are less than 1.26 * limit / ln(limit) prime numbers up to "limit".
+    int[] primes = new int[(int) (1.26 * limit / Math.log(limit)) + 1];
+    int count = 0;
+    for (int i = flags.nextClearBit(2); i <= limit; i = flags.nextClearBit(i + 1)) {
+      primes[count++] = i;
+    }
+    return Arrays.copyOf(primes, count);
+  }
+}
@@ -0,0 +1,21 @@
+package primeNumberCalculation;
+
+import com.google.inject.assistedinject.Assisted;
+
+/**
+ * Interface used in Assist Inject for the factory providing
+ * "PrimeFactorizer.FactorizationWorker"
+ *
+ */
+public interface FactorizationWorkerFactory {
+  public PrimeFactorizer.FactorizationWorker create(
+      @Assisted("index") Integer index,
+      @Assisted("workerLowerBound") Integer workerLowerBound,
+      @Assisted("workerUpperBound") Integer workerUpperBound,
+      @Assisted("inputs") int[] inputs,
+      @Assisted SmallestPrimeFactorTable table,
+      @Assisted("offsets") int[] offsets,
+      @Assisted Boolean writing,
+      @Assisted("factors") int[] factors
+      );
+}
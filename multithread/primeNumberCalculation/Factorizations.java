@@ -0,0 +1,49 @@
+package primeNumberCalculation;
+
+import java.util.Arrays;
+
+/**
+ * The prime factors of a batch of numbers, stored back to back in one array:
+ * the factors of the i-th number, in increasing order and with multiplicity,
+ * are at [offsets[i], offsets[i + 1]) in "factors".
+ */
+public class Factorizations {
+  private final int[] offsets;
+  private final int[] factors;
+
+  Factorizations(int[] offsets, int[] factors) {
+    this.offsets = offsets;
+    this.factors = factors;
+  }
+
+  /**
+   * @return the number of numbers factorized.
+   */
+  public int size() {
+    return offsets.length - 1;
+  }
+
+  /**
+   * @return the number of prime factors of the i-th number.
+   */
+  public int count(int index) {
+    return offsets[index + 1] - offsets[index];
+  }
+
+  /**
+   * @return the j-th smallest prime factor of the i-th number.
+   */
+  public int factor(int index, int position) {
+    if (position < 0 || position >= count(index)) {
+      throw new IndexOutOfBoundsException("No prime factor " + position + " for number " + index);
+    }
+    return factors[offsets[index] + position];
+  }
+
+  /**
+   * @return a copy of the prime factors of the i-th number.
+   */
+  public int[] factorsOf(int index) {
+    return Arrays.copyOfRange(factors, offsets[index], offsets[index + 1]);
+  }
+}
@@ -0,0 +1,111 @@
+package primeNumberCalculation;
+
+/**
+ * Deterministic Miller-Rabin primality test for every non-negative "long".
+ * The 7 witnesses found by Jim Sinclair leave no strong pseudoprime below
+ * 2^64. The modular products are done in Montgomery form with R = 2^64, using
+ * "Math.multiplyHigh" for the high half of the 128-bit products, so no
+ * "BigInteger" is needed.
+ */
+public class MillerRabin {
+  private static final long[] WITNESSES =
+      { 2, 325, 9375, 28178, 450775, 9780504, 1795265022 };
+
+  private MillerRabin() {
+  }
+
+  /**
+   * @return true if "number" is prime.
+   */
+  public static boolean isPrime(long number) {
+    if (number < 2) {
+      return false;
+    }
+    if ((number & 1) == 0) {
+      return number == 2;
+    }
+    if (number < 9) {
+      return number != 1;
+    }
+    final long n = number;
+    final long inverse = inverse(n);
+    // R mod n, which is the Montgomery form of 1.
+    final long one = Long.remainderUnsigned(-1L, n) + 1;
+    final long minusOne = n - one;
+    long rSquared = one;
+    for (int i = 0; i < 64; ++i) {
+      rSquared <<= 1;
+      if (Long.compareUnsigned(rSquared, n) >= 0) {
+        rSquared -= n;
+      }
+    }
+
+    int shift = Long.numberOfTrailingZeros(n - 1);
+    long oddPart = (n - 1) >>> shift;
+    for (long witness : WITNESSES) {
+      long base = witness % n;
+      if (base == 0) {
+        continue;
+      }
+      long x = power(multiply(base, rSquared, n, inverse), oddPart, one, n, inverse);
+      if (x == one || x == minusOne) {
+        continue;
+      }
+      boolean composite = true;
+      for (int i = 1; i < shift; ++i) {
+        x = multiply(x, x, n, inverse);
+        if (x == minusOne) {
+          composite = false;
+          break;
+        }
+      }
+      if (composite) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the inverse of the odd number "n" modulo 2^64, by Newton's
+   *         iteration, each step doubling the number of correct low bits.
+   */
+  private static long inverse(long n) {
+    long x = n; // n * n = 1 modulo 8, so 3 bits are already correct.
+    for (int i = 0; i < 5; ++i) {
+      x *= 2 - n * x;
+    }
+    return x;
+  }
+
+  /**
+   * Montgomery product of "a" and "b", both in [0, n), with n < 2^63.
+   *
+   * @return a * b / 2^64 modulo n, in [0, n).
+   */
+  private static long multiply(long a, long b, long n, long inverse) {
+    long low = a * b;
+    long high = Math.multiplyHigh(a, b);
+    // m * n has the same low half as a * b, so the low halves cancel out.
+    long m = low * inverse;
+    long mnHigh = Math.multiplyHigh(m, n) + ((m >> 63) & n);
+    long result = high - mnHigh;
+    return (result < 0) ? result + n : result;
+  }
+
+  /**
+   * @return base^exponent in Montgomery form, where "base" and "one" are in
+   *         Montgomery form.
+   */
+  private static long power(long base, long exponent, long one, long n, long inverse) {
+    long result = one;
+    while (exponent > 0) {
+      if ((exponent & 1) != 0) {
+        result = multiply(result, base, n, inverse);
+      }
+      base = multiply(base, base, n, inverse);
+      exponent >>>= 1;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,243 @@
+package primeNumberCalculation;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Same flags as "WheelPrimeNumberFlags", but the words live outside of the
+ * Java heap, in direct buffers of up to 1GB each, and the numbers covered are
+ * not limited to an "int" size. At most 2^31 - 1 words, i.e. about 5 * 10^11
+ * numbers, can be covered.
+ *
+ * The memory is released by "close", after which the flags must not be used
+ * anymore; otherwise it is released whenever the flags are garbage collected.
+ * The JVM limits the direct memory to the maximum heap size unless
+ * "-XX:MaxDirectMemorySize" says otherwise.
+ */
+public class OffHeapPrimeNumberFlags implements SieveFlags {
+  private static final int WHEEL = 30;
+  private static final int NUMBERS_PER_WORD = 240;
+  private static final int ADDRESS_BITS_PER_WORD = 6;
+  private static final int ADDRESS_BITS_PER_CHUNK = 27;
+
+  /** Frees a direct buffer right away, or null if the JVM does not allow it. */
+  private static final Method INVOKE_CLEANER;
+  private static final Object UNSAFE;
+
+  static {
+    Method invokeCleaner = null;
+    Object unsafe = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      invokeCleaner = null;
+    }
+    INVOKE_CLEANER = invokeCleaner;
+    UNSAFE = unsafe;
+  }
+
+  private final long lowerBound;
+  private final long upperBound;
+  private final int numWords;
+  private final int addressBitsPerChunk;
+  private ByteBuffer[] buffers;
+  private LongBuffer[] chunks;
+
+  /**
+   * @param lowerBound
+   *          the first number to be covered by the flags, which is rounded
+   *          down to a multiple of 30.
+   * @param size
+   *          the flags cover the numbers in [lowerBound, lowerBound + size).
+   */
+  public OffHeapPrimeNumberFlags(long lowerBound, long size) {
+    this(lowerBound, size, ADDRESS_BITS_PER_CHUNK);
+  }
+
+  /**
+   * @param addressBitsPerChunk
+   *          each direct buffer holds 2^addressBitsPerChunk words.
+   */
+  OffHeapPrimeNumberFlags(long lowerBound, long size, int addressBitsPerChunk) {
+    if (size < 0 || lowerBound < 0) {
+      throw new IllegalArgumentException("The flags should cover non-negative numbers");
+    }
+    this.lowerBound = lowerBound - lowerBound % WHEEL;
+    this.upperBound = lowerBound + size;
+    long numWords = (upperBound - this.lowerBound + NUMBERS_PER_WORD - 1) / NUMBERS_PER_WORD;
+    if (numWords > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The flags should cover less than "
+          + (long) Integer.MAX_VALUE * NUMBERS_PER_WORD + " numbers");
+    }
+    this.numWords = (int) numWords;
+    this.addressBitsPerChunk = addressBitsPerChunk;
+    int wordsPerChunk = 1 << addressBitsPerChunk;
+    int numChunks = (int) ((numWords + wordsPerChunk - 1) >>> addressBitsPerChunk);
+    this.buffers = new ByteBuffer[numChunks];
+    this.chunks = new LongBuffer[numChunks];
+    for (int i = 0; i < numChunks; ++i) {
+      int chunkWords = (int) Math.min(wordsPerChunk, numWords - ((long) i << addressBitsPerChunk));
+      buffers[i] = ByteBuffer.allocateDirect(chunkWords * 8).order(ByteOrder.nativeOrder());
+      chunks[i] = buffers[i].asLongBuffer();
+    }
+  }
+
+  @Override
+  public long lowerBound() {
+    return lowerBound;
+  }
+
+  @Override
+  public long upperBound() {
+    return upperBound;
+  }
+
+  @Override
+  public int wordSpan() {
+    return NUMBERS_PER_WORD;
+  }
+
+  @Override
+  public int numWords() {
+    return numWords;
+  }
+
+  @Override
+  public long word(int index) {
+    return chunks[index >>> addressBitsPerChunk].get(index & ((1 << addressBitsPerChunk) - 1));
+  }
+
+  @Override
+  public void clear() {
+    for (LongBuffer chunk : chunks) {
+      for (int i = 0; i < chunk.limit(); ++i) {
+        chunk.put(i, 0L);
+      }
+    }
+  }
+
+  /**
+   * Only the multiples "prime * m" with "m" coprime to 30 are visited, as in
+   * "WheelPrimeNumberFlags".
+   */
+  @Override
+  public void markMultiplesOf(int prime, long from, long to) {
+    if (prime < 7) {
+      return;
+    }
+    final LongBuffer[] chunks = this.chunks;
+    final int chunkMask = (1 << addressBitsPerChunk) - 1;
+    from = Math.max(from, lowerBound);
+    to = Math.min(to, upperBound);
+    long multiplier = Math.max(prime, (from + prime - 1) / prime);
+    long number = prime * multiplier;
+    if (number >= to) {
+      return;
+    }
+    long candidateIndex = WheelPrimeNumberFlags.candidatesBelow(multiplier);
+    while (true) {
+      number = prime * WheelPrimeNumberFlags.candidateAt(candidateIndex++);
+      if (number >= to) {
+        return;
+      }
+      long bitIndex = WheelPrimeNumberFlags.candidateIndex(number - lowerBound);
+      int wordIndex = (int) (bitIndex >>> ADDRESS_BITS_PER_WORD);
+      LongBuffer chunk = chunks[wordIndex >>> addressBitsPerChunk];
+      int position = wordIndex & chunkMask;
+      chunk.put(position, chunk.get(position) | (1L << bitIndex));
+    }
+  }
+
+  /**
+   * Copy the pattern of the multiples of the primes from 7 to 17, one chunk
+   * at a time.
+   */
+  @Override
+  public int presieve(long from, long to) {
+    PresievePattern pattern = PresievePattern.WHEEL;
+    from = Math.max(from, lowerBound);
+    to = Math.min(to, upperBound);
+    if (from < to) {
+      int fromWord = (int) ((from - lowerBound) / NUMBERS_PER_WORD);
+      int toWord = (int) ((to - lowerBound + NUMBERS_PER_WORD - 1) / NUMBERS_PER_WORD);
+      int patternWord = pattern.wordAt(lowerBound + (long) fromWord * NUMBERS_PER_WORD);
+      int chunkMask = (1 << addressBitsPerChunk) - 1;
+      while (fromWord < toWord) {
+        int chunkEnd = Math.min(toWord, (fromWord | chunkMask) + 1);
+        int chunkStart = fromWord & ~chunkMask;
+        patternWord = pattern.stamp(chunks[fromWord >>> addressBitsPerChunk],
+            fromWord - chunkStart, chunkEnd - chunkStart, patternWord);
+        fromWord = chunkEnd;
+      }
+      for (int prime : pattern.primes()) {
+        if (prime >= from && prime < to) {
+          long bitIndex = WheelPrimeNumberFlags.candidateIndex(prime - lowerBound);
+          int wordIndex = (int) (bitIndex >>> ADDRESS_BITS_PER_WORD);
+          LongBuffer chunk = chunks[wordIndex >>> addressBitsPerChunk];
+          int position = wordIndex & chunkMask;
+          chunk.put(position, chunk.get(position) & ~(1L << bitIndex));
+        }
+      }
+    }
+    return pattern.limit();
+  }
+
+  @Override
+  public long nextPrime(long fromNumber) {
+    fromNumber = Math.max(fromNumber, lowerBound);
+    if (fromNumber <= 5) {
+      int smallPrime = fromNumber <= 2 ? 2 : (fromNumber <= 3 ? 3 : 5);
+      return Math.min(smallPrime, upperBound);
+    }
+    fromNumber = Math.max(fromNumber, 7);
+    if (fromNumber >= upperBound) {
+      return upperBound;
+    }
+    long bitIndex = WheelPrimeNumberFlags.candidatesBelow(fromNumber - lowerBound);
+    int wordIndex = (int) (bitIndex >>> ADDRESS_BITS_PER_WORD);
+    if (wordIndex == numWords) {
+      return upperBound;
+    }
+    long word = ~word(wordIndex) & (-1L << bitIndex);
+    while (word == 0) {
+      if (++wordIndex == numWords) {
+        return upperBound;
+      }
+      word = ~word(wordIndex);
+    }
+    long foundIndex = (long) wordIndex * 64 + Long.numberOfTrailingZeros(word);
+    return Math.min(lowerBound + WheelPrimeNumberFlags.candidateAt(foundIndex), upperBound);
+  }
+
+  /**
+   * Release the direct buffers now rather than when they are garbage
+   * collected. Nothing may use the flags during or after this call, which
+   * "PrimeNumberCalculator" makes sure of by stopping the worker threads of
+   * the run first.
+   */
+  @Override
+  public synchronized void close() {
+    if (buffers == null) {
+      return;
+    }
+    ByteBuffer[] released = buffers;
+    buffers = null;
+    chunks = null;
+    if (INVOKE_CLEANER != null) {
+      for (ByteBuffer buffer : released) {
+        try {
+          INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+          // Released by the garbage collector instead.
+        }
+      }
+    }
+  }
+}
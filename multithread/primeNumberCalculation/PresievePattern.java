@@ -0,0 +1,139 @@
+package primeNumberCalculation;
+
+import java.math.BigInteger;
+import java.nio.LongBuffer;
+
+/**
+ * The words of the flags marking the multiples of the smallest primes, which
+ * repeat themselves every "period" words. Copying them into the flags marks
+ * the multiples of all these primes at once, instead of walking them one
+ * multiple at a time. The primes themselves are marked too, and should be
+ * un-marked by the caller.
+ *
+ * Word "k" of the pattern starts at the number "k * numbersPerWord + offset"
+ * (or at the k * 64-th number coprime to 30 for the wheel), so the word of
+ * some flags starting at "number" gets the pattern word "wordAt(number)".
+ */
+final class PresievePattern {
+  /** For "PrimeNumberFlags" whose words start at even numbers. */
+  static final PresievePattern PLAIN_EVEN =
+      new PresievePattern(new int[] { 2, 3, 5, 7, 11, 13 }, false, 0);
+  /** For "PrimeNumberFlags" whose words start at odd numbers. */
+  static final PresievePattern PLAIN_ODD =
+      new PresievePattern(new int[] { 2, 3, 5, 7, 11, 13 }, false, 1);
+  /** For the flags only storing the numbers coprime to 30. */
+  static final PresievePattern WHEEL =
+      new PresievePattern(new int[] { 7, 11, 13, 17 }, true, 0);
+
+  private static final int BITS_PER_WORD = 64;
+  private static final int WHEEL_NUMBERS_PER_WORD = 240;
+
+  private final int[] primes;
+  private final int offset;
+  private final int unit;
+  private final int period;
+  private final long inverse;
+  private final long[] words;
+
+  /**
+   * @param primes
+   *          the primes whose multiples are marked, in increasing order.
+   * @param wheel
+   *          true if only the numbers coprime to 30 are stored.
+   * @param offset
+   *          the first number of word 0.
+   */
+  private PresievePattern(int[] primes, boolean wheel, int offset) {
+    long modulus = 1;
+    for (int prime : primes) {
+      modulus *= prime;
+    }
+    if (wheel) {
+      modulus *= 30;
+    }
+    int numbersPerWord = wheel ? WHEEL_NUMBERS_PER_WORD : BITS_PER_WORD;
+    this.primes = primes;
+    this.offset = offset;
+    // The words start at multiples of "unit" (plus "offset"), and the pattern
+    // repeats itself every "modulus" numbers, i.e. "period" words.
+    this.unit = BigInteger.valueOf(numbersPerWord).gcd(BigInteger.valueOf(modulus)).intValue();
+    this.period = (int) (modulus / unit);
+    this.inverse = BigInteger.valueOf(numbersPerWord / unit)
+        .modInverse(BigInteger.valueOf(period)).longValue();
+    this.words = new long[period];
+    for (int k = 0; k < period; ++k) {
+      long word = 0;
+      for (int i = 0; i < BITS_PER_WORD; ++i) {
+        long number = wheel ? WheelPrimeNumberFlags.candidateAt((long) k * BITS_PER_WORD + i)
+            : (long) k * BITS_PER_WORD + i + offset;
+        for (int prime : primes) {
+          if (number % prime == 0) {
+            word |= 1L << i;
+            break;
+          }
+        }
+      }
+      words[k] = word;
+    }
+  }
+
+  /**
+   * @return the pattern for "PrimeNumberFlags" starting at "lowerBound".
+   */
+  static PresievePattern plain(long lowerBound) {
+    return (lowerBound & 1) == 0 ? PLAIN_EVEN : PLAIN_ODD;
+  }
+
+  /**
+   * @return the primes whose multiples are marked, in increasing order.
+   */
+  int[] primes() {
+    return primes;
+  }
+
+  /**
+   * @return the largest prime whose multiples are marked.
+   */
+  int limit() {
+    return primes[primes.length - 1];
+  }
+
+  /**
+   * @param number
+   *          the first number of a word of the flags, which should be
+   *          "offset" plus a multiple of "unit".
+   * @return the index of the pattern word matching that word.
+   */
+  int wordAt(long number) {
+    return (int) ((number - offset) / unit % period * inverse % period);
+  }
+
+  /**
+   * Overwrite target[fromWord, toWord) with the pattern, starting from the
+   * pattern word "patternWord".
+   *
+   * @return the pattern word following the last one copied.
+   */
+  int stamp(long[] target, int fromWord, int toWord, int patternWord) {
+    while (fromWord < toWord) {
+      int length = Math.min(toWord - fromWord, period - patternWord);
+      System.arraycopy(words, patternWord, target, fromWord, length);
+      fromWord += length;
+      patternWord = (patternWord + length) % period;
+    }
+    return patternWord;
+  }
+
+  /**
+   * Same as "stamp(long[], ...)", for flags held in a buffer.
+   */
+  int stamp(LongBuffer target, int fromWord, int toWord, int patternWord) {
+    while (fromWord < toWord) {
+      int length = Math.min(toWord - fromWord, period - patternWord);
+      target.put(fromWord, words, patternWord, length);
+      fromWord += length;
+      patternWord = (patternWord + length) % period;
+    }
+    return patternWord;
+  }
+}
@@ -0,0 +1,162 @@
+package primeNumberCalculation;
+
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Checks whether isolated numbers up to 2^63 are prime, where sieving up to
+ * the numbers would be far too costly. Numbers below "SMALL_PRIME_LIMIT" are
+ * looked up in the cached base primes, and larger ones are tried against the
+ * prime numbers below "TRIAL_DIVISION_LIMIT" before running "MillerRabin",
+ * which cheaply rules out about 80% of the odd numbers.
+ */
+public class PrimalityChecker {
+  static final int SMALL_PRIME_LIMIT = 1 << 16;
+  static final int TRIAL_DIVISION_LIMIT = 256;
+
+  private final BasePrimeCache basePrimeCache;
+  private final int numThreads;
+  private final int minLengthForEachWorker;
+  private final PrimalityWorkerFactory factory;
+  private final ExecutorService executorService;
+
+  /**
+   * @param basePrimeCache
+   *          cache of the small prime numbers.
+   * @param numThreads
+   *          the number of worker threads sharing a batch.
+   * @param minLengthForEachWorker
+   *          the smallest number of candidates a worker thread would handle.
+   * @param factory
+   *          factory object to provide PrimalityWorker objects
+   * @param executorService
+   *          the long-lived executor running the worker threads.
+   */
+  @Inject
+  public PrimalityChecker(BasePrimeCache basePrimeCache,
+      @Named("numThreads") Integer numThreads,
+      @Named("minLengthForEachWorker") Integer minLengthForEachWorker,
+      PrimalityWorkerFactory factory,
+      @Named("executorService") ExecutorService executorService) {
+    this.basePrimeCache = basePrimeCache;
+    this.numThreads = numThreads;
+    this.minLengthForEachWorker = minLengthForEachWorker;
+    this.factory = factory;
+    this.executorService = executorService;
+  }
+
+  /**
+   * @return true if "number" is prime.
+   */
+  public boolean isPrime(long number) {
+    return isPrime(number, basePrimeCache.primesUpTo(SMALL_PRIME_LIMIT));
+  }
+
+  /**
+   * Check every number of "candidates", split among the worker threads.
+   *
+   * @return whether each number of "candidates" is prime.
+   * @throws InterruptedException
+   */
+  public boolean[] isPrime(long[] candidates) throws InterruptedException {
+    int[] smallPrimes = basePrimeCache.primesUpTo(SMALL_PRIME_LIMIT);
+    boolean[] results = new boolean[candidates.length];
+    int range = Math.max(Math.max(1, minLengthForEachWorker),
+        (candidates.length + numThreads - 1) / numThreads);
+    List<Callable<Integer>> callables = new ArrayList<Callable<Integer>>();
+    for (int i = 0; (long) i * range < candidates.length; ++i) {
+      int workerUpperBound = (int) Math.min(candidates.length, (long) (i + 1) * range);
+      callables.add(factory.create(i, i * range, workerUpperBound, candidates, results,
+          smallPrimes));
+    }
+    for (Future<Integer> future : executorService.invokeAll(callables)) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("A primality worker failed", e.getCause());
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @param smallPrimes
+   *          the prime numbers up to at least "SMALL_PRIME_LIMIT", in
+   *          increasing order.
+   * @return true if "number" is prime.
+   */
+  static boolean isPrime(long number, int[] smallPrimes) {
+    if (number < SMALL_PRIME_LIMIT) {
+      return number >= 2 && Arrays.binarySearch(smallPrimes, (int) number) >= 0;
+    }
+    for (int prime : smallPrimes) {
+      if (prime >= TRIAL_DIVISION_LIMIT) {
+        break;
+      }
+      if (number % prime == 0) {
+        return false;
+      }
+    }
+    return MillerRabin.isPrime(number);
+  }
+
+  public static class PrimalityWorker implements Callable<Integer> {
+    private final int index;
+    private final int workerLowerBound; // included
+    private final int workerUpperBound; // excluded
+    private final long[] candidates;
+    private final boolean[] results;
+    private final int[] smallPrimes;
+
+    /**
+     *
+     * @param index
+     *          the index of this worker thread (not used in the current
+     *          implementation, but is useful for debugging).
+     * @param workerLowerBound
+     *          the lower bound (included) of the positions in "candidates"
+     *          handled by this thread.
+     * @param workerUpperBound
+     *          the upper bound (excluded) of the positions in "candidates"
+     *          handled by this thread.
+     * @param candidates
+     *          the numbers to check.
+     * @param results
+     *          receives whether each candidate is prime.
+     * @param smallPrimes
+     *          the prime numbers up to at least "SMALL_PRIME_LIMIT".
+     */
+    @Inject
+    public PrimalityWorker(
+        @Assisted("index") Integer index,
+        @Assisted("workerLowerBound") Integer workerLowerBound,
+        @Assisted("workerUpperBound") Integer workerUpperBound,
+        @Assisted long[] candidates,
+        @Assisted boolean[] results,
+        @Assisted int[] smallPrimes) {
+      this.index = index;
+      this.workerLowerBound = workerLowerBound;
+      this.workerUpperBound = workerUpperBound;
+      this.candidates = candidates;
+      this.results = results;
+      this.smallPrimes = smallPrimes;
+    }
+
+    @Override
+    public Integer call() {
+      for (int i = workerLowerBound; i < workerUpperBound; ++i) {
+        results[i] = isPrime(candidates[i], smallPrimes);
+      }
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package primeNumberCalculation;
+
+import com.google.inject.assistedinject.Assisted;
+
+/**
+ * Interface used in Assist Inject for the factory providing
+ * "PrimalityChecker.PrimalityWorker"
+ *
+ */
+public interface PrimalityWorkerFactory {
+  public PrimalityChecker.PrimalityWorker create(
+      @Assisted("index") Integer index,
+      @Assisted("workerLowerBound") Integer workerLowerBound,
+      @Assisted("workerUpperBound") Integer workerUpperBound,
+      @Assisted long[] candidates,
+      @Assisted boolean[] results,
+      @Assisted int[] smallPrimes
+      );
+}
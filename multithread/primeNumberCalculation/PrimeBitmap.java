@@ -0,0 +1,244 @@
+package primeNumberCalculation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A read-only sieve of the numbers in [0, bound) stored in a file, which is
+ * mapped into memory and read in place.
+ *
+ * The file is little-endian, with a header of 64 bytes followed by the words
+ * of the sieve flags, in which a set bit marks a non-prime number:
+ *
+ * <pre>
+ *  0  int   MAGIC
+ *  4  int   VERSION
+ *  8  int   wheel: PLAIN (one bit per number) or WHEEL_30 (one bit per
+ *           number coprime to 30, see "WheelPrimeNumberFlags")
+ * 12  int   0
+ * 16  long  bound: the upper bound (excluded) of the numbers covered
+ * 24  long  number of words
+ * 32  long  CRC32C checksum of the words
+ * 40  zero padding up to 64
+ * </pre>
+ */
+public class PrimeBitmap {
+  static final int MAGIC = 0x424d5250; // "PRMB" in little-endian.
+  static final int VERSION = 1;
+  static final int PLAIN = 1;
+  static final int WHEEL_30 = 30;
+  static final int HEADER_SIZE = 64;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final int wheel;
+  private final long bound;
+  private final LongBuffer words;
+
+  private PrimeBitmap(int wheel, long bound, LongBuffer words) {
+    this.wheel = wheel;
+    this.bound = bound;
+    this.words = words;
+  }
+
+  /**
+   * Map the file at "path" into memory after checking its header and
+   * checksum.
+   *
+   * @throws IOException
+   *           if the file can't be read or is not a valid bitmap.
+   */
+  public static PrimeBitmap open(Path path) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE) {
+        throw new IOException("Truncated prime bitmap header in " + path);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a prime bitmap: " + path);
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported prime bitmap version " + buffer.getInt(4) + " in " + path);
+    }
+    int wheel = buffer.getInt(8);
+    long bound = buffer.getLong(16);
+    long numWords = buffer.getLong(24);
+    long checksum = buffer.getLong(32);
+    if ((wheel != PLAIN && wheel != WHEEL_30) || bound < 0
+        || numWords != wordsNeeded(wheel, bound)
+        || buffer.capacity() != HEADER_SIZE + numWords * 8) {
+      throw new IOException("Corrupted prime bitmap header in " + path);
+    }
+    ByteBuffer data = buffer.position(HEADER_SIZE).slice().order(ByteOrder.LITTLE_ENDIAN);
+    CRC32C crc = new CRC32C();
+    crc.update(data.duplicate());
+    if (crc.getValue() != checksum) {
+      throw new IOException("Prime bitmap checksum mismatch in " + path);
+    }
+    return new PrimeBitmap(wheel, bound, data.asLongBuffer());
+  }
+
+  /**
+   * Write the sieve "flags" covering [0, upperBound) to "path", through a
+   * temporary file in the same directory which then replaces "path", so that
+   * readers never see a partial file.
+   *
+   * @throws IOException
+   */
+  public static void write(Path path, SieveFlags flags) throws IOException {
+    if (flags.lowerBound() != 0) {
+      throw new IllegalArgumentException("Only flags starting from 0 can be written");
+    }
+    int wheel = (flags.wordSpan() == PrimeNumberFlags.BITS_PER_WORD) ? PLAIN : WHEEL_30;
+    Path directory = path.toAbsolutePath().getParent();
+    Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32C crc = new CRC32C();
+        channel.position(HEADER_SIZE);
+        for (int i = 0; i < flags.numWords(); ++i) {
+          buffer.putLong(flags.word(i));
+          if (!buffer.hasRemaining()) {
+            writeData(channel, buffer, crc);
+          }
+        }
+        writeData(channel, buffer, crc);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(wheel).putInt(0)
+            .putLong(flags.upperBound()).putLong(flags.numWords()).putLong(crc.getValue());
+        header.clear();
+        channel.position(0);
+        while (header.hasRemaining()) {
+          channel.write(header);
+        }
+        channel.force(false);
+      }
+      Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Write the content of "buffer" to "channel" and add it to the checksum,
+   * then clear "buffer".
+   */
+  private static void writeData(FileChannel channel, ByteBuffer buffer, CRC32C crc)
+      throws IOException {
+    buffer.flip();
+    crc.update(buffer.duplicate());
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * @return the number of words of the flags covering [0, bound).
+   */
+  private static long wordsNeeded(int wheel, long bound) {
+    long numBits = (wheel == WHEEL_30) ? (bound + WHEEL_30 - 1) / WHEEL_30 * 8 : bound;
+    return (numBits + 63) / 64;
+  }
+
+  /**
+   * @return the upper bound (excluded) of the numbers covered.
+   */
+  public long getBound() {
+    return bound;
+  }
+
+  /**
+   * @return "WHEEL_30" if only the numbers coprime to 30 are stored, "PLAIN"
+   *         otherwise.
+   */
+  public int getWheel() {
+    return wheel;
+  }
+
+  /**
+   * @return true if "number", which should be in [0, bound), is prime.
+   */
+  public boolean isPrime(long number) {
+    if (number < 0 || number >= bound) {
+      throw new IllegalArgumentException("The number should be in [0, " + bound + ")");
+    }
+    long bitIndex;
+    if (wheel == WHEEL_30) {
+      if (number < 7) {
+        return number == 2 || number == 3 || number == 5;
+      }
+      bitIndex = WheelPrimeNumberFlags.candidateIndex(number);
+      if (bitIndex < 0) {
+        return false;
+      }
+    } else {
+      if (number < 2) {
+        return false;
+      }
+      bitIndex = number;
+    }
+    return (words.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0;
+  }
+
+  /**
+   * Find the smallest prime number no less than "fromNumber".
+   *
+   * @return the number found, or "bound" if there is no such number.
+   */
+  public long nextPrime(long fromNumber) {
+    long bitIndex;
+    if (wheel == WHEEL_30) {
+      if (fromNumber <= 5) {
+        int smallPrime = fromNumber <= 2 ? 2 : (fromNumber <= 3 ? 3 : 5);
+        return Math.min(smallPrime, bound);
+      }
+      bitIndex = WheelPrimeNumberFlags.candidatesBelow(Math.max(fromNumber, 7));
+    } else {
+      bitIndex = Math.max(fromNumber, 2);
+    }
+    if (fromNumber >= bound) {
+      return bound;
+    }
+    int wordIndex = (int) (bitIndex >>> 6);
+    int numWords = words.limit();
+    if (wordIndex == numWords) {
+      return bound;
+    }
+    long word = ~words.get(wordIndex) & (-1L << bitIndex);
+    while (word == 0) {
+      if (++wordIndex == numWords) {
+        return bound;
+      }
+      word = ~words.get(wordIndex);
+    }
+    long foundIndex = (long) wordIndex * 64 + Long.numberOfTrailingZeros(word);
+    long number = (wheel == WHEEL_30) ? WheelPrimeNumberFlags.candidateAt(foundIndex) : foundIndex;
+    return Math.min(number, bound);
+  }
+
+  /**
+   * Pass the prime numbers in [0, bound) to "consumer" in increasing order.
+   */
+  public void forEachPrime(LongConsumer consumer) {
+    for (long i = nextPrime(0); i < bound; i = nextPrime(i + 1)) {
+      consumer.accept(i);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package primeNumberCalculation;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Loads the sieve of [0, upperBound) from a "PrimeBitmap" file, so that only
+ * the first run pays for the sieve. When the file is missing, invalid or too
+ * small, the sieve is computed by a "PrimeNumberCalculator" in the configured
+ * "SieveMode" and written to the file.
+ */
+public class PrimeBitmapLoader {
+  private final int upperBound;
+  private final Provider<PrimeNumberCalculator> calculatorProvider;
+
+  /**
+   * @param upperBound
+   *          the upperBound (excluded) of the numbers to be covered.
+   * @param calculatorProvider
+   *          provides the calculator used when the file can't be used.
+   */
+  @Inject
+  public PrimeBitmapLoader(@Named("upperBound") Integer upperBound,
+      Provider<PrimeNumberCalculator> calculatorProvider) {
+    this.upperBound = upperBound;
+    this.calculatorProvider = calculatorProvider;
+  }
+
+  /**
+   * @return the sieve stored in the file at "path", covering at least
+   *         [0, upperBound).
+   * @throws IOException
+   *           if the file can't be written.
+   * @throws InterruptedException
+   */
+  public PrimeBitmap load(Path path) throws IOException, InterruptedException {
+    if (Files.exists(path)) {
+      try {
+        PrimeBitmap bitmap = PrimeBitmap.open(path);
+        if (bitmap.getBound() >= upperBound) {
+          return bitmap;
+        }
+      } catch (IOException e) {
+        // Invalid or unreadable, computed again below.
+      }
+    }
+    Path directory = path.toAbsolutePath().getParent();
+    if (directory != null) {
+      Files.createDirectories(directory);
+    }
+    // Closing the calculator releases the flags handed out by "sieveAll".
+    try (PrimeNumberCalculator calculator = calculatorProvider.get()) {
+      PrimeBitmap.write(path, calculator.sieveAll());
+    }
+    return PrimeBitmap.open(path);
+  }
+}
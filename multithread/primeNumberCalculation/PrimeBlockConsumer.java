@@ -0,0 +1,18 @@
+package primeNumberCalculation;
+
+/**
+ * Callback receiving the prime numbers found by "PrimeNumberCalculator" one
+ * segment at a time, in increasing order.
+ */
+public interface PrimeBlockConsumer {
+  /**
+   * @param primes
+   *          the prime numbers of one segment are in primes[0, count). The
+   *          array is reused for the next segment, so copy what needs to be
+   *          kept. Wrap it with "IntBuffer.wrap(primes, 0, count)" if a buffer
+   *          is more convenient.
+   * @param count
+   *          the number of prime numbers in the segment.
+   */
+  public void accept(int[] primes, int count);
+}
@@ -0,0 +1,243 @@
+package primeNumberCalculation;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Answers "isPrime", "primeCount" and "nthPrime" queries from a sieve shared
+ * by all the users of the same injector. The sieve covers [0, bound) and grows
+ * when a query goes past "bound", at least doubling each time, by sieving only
+ * the new numbers with a "PrimeNumberCalculator".
+ *
+ * Like "WheelPrimeNumberFlags", one bit is kept for each number coprime to 30,
+ * but a set bit means the number is prime, so that the prime numbers are
+ * counted with "Long.bitCount". The number of set bits before each block of
+ * words is kept too, so a query reads at most one block.
+ *
+ * The sieve is published as an immutable snapshot. A growing sieve is built
+ * into new arrays while holding a lock, so the readers covered by the current
+ * snapshot never wait.
+ */
+@Singleton
+public class PrimeCache {
+  private static final int WORDS_PER_BLOCK = 8;
+  private static final int NUMBERS_PER_WORD = 240;
+  private static final int NUMBERS_PER_BLOCK = NUMBERS_PER_WORD * WORDS_PER_BLOCK;
+
+  /** The smallest bound of a non-empty sieve. */
+  private static final long MIN_BOUND = NUMBERS_PER_BLOCK * 64L;
+
+  /** The most numbers sieved by one call to "forEachPrimeInRange". */
+  private static final long MAX_WINDOW = (1L << 30) / NUMBERS_PER_BLOCK * NUMBERS_PER_BLOCK;
+
+  /** The largest bound of the sieve, so that the words are indexed by "int". */
+  public static final long MAX_BOUND =
+      (long) (Integer.MAX_VALUE / WORDS_PER_BLOCK - 1) * NUMBERS_PER_BLOCK;
+
+  private static final long[] SMALL_PRIMES = { 2, 3, 5 };
+
+  private final Provider<PrimeNumberCalculator> calculatorProvider;
+  private final Object growLock = new Object();
+  private volatile Snapshot snapshot = new Snapshot(0, new long[0], new long[1]);
+
+  /**
+   * @param calculatorProvider
+   *          provides the calculators used to sieve the numbers added when the
+   *          cache grows.
+   */
+  @Inject
+  public PrimeCache(Provider<PrimeNumberCalculator> calculatorProvider) {
+    this.calculatorProvider = calculatorProvider;
+  }
+
+  /**
+   * @return the upper bound (excluded) of the numbers currently sieved.
+   */
+  public long getBound() {
+    return snapshot.bound;
+  }
+
+  /**
+   * @return true if "number" is prime, growing the cache past "number" if
+   *         needed.
+   * @throws InterruptedException
+   */
+  public boolean isPrime(long number) throws InterruptedException {
+    if (number < 7) {
+      return number == 2 || number == 3 || number == 5;
+    }
+    long index = WheelPrimeNumberFlags.candidateIndex(number);
+    if (index < 0) {
+      return false;
+    }
+    Snapshot current = coverUpTo(number);
+    return (current.words[(int) (index >>> 6)] & (1L << index)) != 0;
+  }
+
+  /**
+   * @return the number of prime numbers no larger than "number", growing the
+   *         cache past "number" if needed.
+   * @throws InterruptedException
+   */
+  public long primeCount(long number) throws InterruptedException {
+    if (number < 7) {
+      return (number >= 2 ? 1 : 0) + (number >= 3 ? 1 : 0) + (number >= 5 ? 1 : 0);
+    }
+    Snapshot current = coverUpTo(number);
+    long numCandidates = WheelPrimeNumberFlags.candidatesBelow(number + 1);
+    int wordIndex = (int) (numCandidates >>> 6);
+    long count = current.blockCounts[wordIndex / WORDS_PER_BLOCK];
+    for (int i = wordIndex - wordIndex % WORDS_PER_BLOCK; i < wordIndex; ++i) {
+      count += Long.bitCount(current.words[i]);
+    }
+    if (numCandidates % 64 != 0) {
+      count += Long.bitCount(current.words[wordIndex] & (-1L >>> (64 - numCandidates % 64)));
+    }
+    return SMALL_PRIMES.length + count;
+  }
+
+  /**
+   * @param rank
+   *          the position of the prime number, starting from 1.
+   * @return the "rank"-th prime number, growing the cache until it is found.
+   * @throws InterruptedException
+   */
+  public long nthPrime(long rank) throws InterruptedException {
+    if (rank < 1) {
+      throw new IllegalArgumentException("The rank of a prime number should be positive");
+    }
+    if (rank <= SMALL_PRIMES.length) {
+      return SMALL_PRIMES[(int) (rank - 1)];
+    }
+    long candidateRank = rank - SMALL_PRIMES.length;
+    Snapshot current = snapshot;
+    while (current.blockCounts[current.blockCounts.length - 1] < candidateRank) {
+      if (current.bound == MAX_BOUND) {
+        throw new IllegalArgumentException("The cache only covers the numbers below " + MAX_BOUND);
+      }
+      current = grow(Math.min(MAX_BOUND,
+          Math.max(estimateNthPrime(rank), current.bound + 1)));
+    }
+    int numBlocks = current.blockCounts.length - 1;
+
+    // Find the last block with less than "candidateRank" prime numbers before
+    // it, then the word holding the prime number inside that block.
+    int low = 0;
+    int high = numBlocks - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (current.blockCounts[middle] < candidateRank) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    long remaining = candidateRank - current.blockCounts[low];
+    int wordIndex = low * WORDS_PER_BLOCK;
+    while (Long.bitCount(current.words[wordIndex]) < remaining) {
+      remaining -= Long.bitCount(current.words[wordIndex++]);
+    }
+    long word = current.words[wordIndex];
+    for (; remaining > 1; --remaining) {
+      word &= word - 1;
+    }
+    return WheelPrimeNumberFlags.candidateAt(
+        (long) wordIndex * 64 + Long.numberOfTrailingZeros(word));
+  }
+
+  /**
+   * @return an upper bound of the "rank"-th prime number, which is less than
+   *         rank * (ln(rank) + ln(ln(rank))) when rank >= 6.
+   */
+  private static long estimateNthPrime(long rank) {
+    if (rank < 6) {
+      return 12;
+    }
+    double logRank = Math.log(rank);
+    return (long) (rank * (logRank + Math.log(logRank))) + 1;
+  }
+
+  /**
+   * @return a snapshot covering "number".
+   * @throws InterruptedException
+   */
+  private Snapshot coverUpTo(long number) throws InterruptedException {
+    Snapshot current = snapshot;
+    return (number < current.bound) ? current : grow(number + 1);
+  }
+
+  /**
+   * Grow the sieve so that it covers [0, minBound), unless another thread has
+   * already done it.
+   *
+   * @return the snapshot published after growing.
+   * @throws InterruptedException
+   */
+  private Snapshot grow(long minBound) throws InterruptedException {
+    if (minBound > MAX_BOUND) {
+      throw new IllegalArgumentException("The cache only covers the numbers below " + MAX_BOUND);
+    }
+    synchronized (growLock) {
+      Snapshot current = snapshot;
+      if (minBound <= current.bound) {
+        return current;
+      }
+      long newBound = Math.max(minBound, Math.max(2 * current.bound, MIN_BOUND));
+      newBound = Math.min(MAX_BOUND,
+          (newBound + NUMBERS_PER_BLOCK - 1) / NUMBERS_PER_BLOCK * NUMBERS_PER_BLOCK);
+
+      final long[] words = Arrays.copyOf(current.words, (int) (newBound / NUMBERS_PER_WORD));
+      PrimeNumberCalculator calculator = calculatorProvider.get();
+      LongConsumer recorder = new LongConsumer() {
+        @Override
+        public void accept(long prime) {
+          long index = WheelPrimeNumberFlags.candidateIndex(prime);
+          if (index >= 0) {
+            words[(int) (index >>> 6)] |= 1L << index;
+          }
+        }
+      };
+      for (long windowStart = current.bound; windowStart < newBound; windowStart += MAX_WINDOW) {
+        calculator.forEachPrimeInRange(windowStart,
+            Math.min(newBound, windowStart + MAX_WINDOW), recorder);
+      }
+
+      int oldNumBlocks = current.blockCounts.length - 1;
+      int numBlocks = words.length / WORDS_PER_BLOCK;
+      long[] blockCounts = Arrays.copyOf(current.blockCounts, numBlocks + 1);
+      for (int block = oldNumBlocks; block < numBlocks; ++block) {
+        long count = blockCounts[block];
+        for (int i = block * WORDS_PER_BLOCK; i < (block + 1) * WORDS_PER_BLOCK; ++i) {
+          count += Long.bitCount(words[i]);
+        }
+        blockCounts[block + 1] = count;
+      }
+      snapshot = new Snapshot(newBound, words, blockCounts);
+      return snapshot;
+    }
+  }
+
+  /**
+   * The sieve covering [0, bound), never modified once published.
+   */
+  private static class Snapshot {
+    /** A multiple of "NUMBERS_PER_BLOCK". */
+    final long bound;
+
+    /** One bit per number coprime to 30, set if the number is prime. */
+    final long[] words;
+
+    /** The number of set bits before each block, and in total at the end. */
+    final long[] blockCounts;
+
+    Snapshot(long bound, long[] words, long[] blockCounts) {
+      this.bound = bound;
+      this.words = words;
+      this.blockCounts = blockCounts;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package primeNumberCalculation;
+
+/**
+ * The table of Lucy's prime counting algorithm for a number "x". It keeps
+ * S(v) for every value "v = x / k" (integer division), which are the numbers
+ * in [1, root] and the quotients "x / k" for "k" in [1, root], where "root" is
+ * the integer square root of "x". There are at most 2 * root such values.
+ *
+ * S(v) starts as the number of integers in [2, v]. Sieving by each prime "p"
+ * up to "root" in increasing order removes the integers in [2, v] whose
+ * smallest prime factor is "p", using
+ * S(v) -= S(v / p) - S(p - 1) for every v >= p * p.
+ * At the end S(v) is the number of prime numbers no larger than "v".
+ *
+ * Each update reads the value of S(v / p) from before the sieving by "p", so
+ * a range of values can be updated by several threads at once as long as no
+ * value in the range is read by another update of the same range. The caller
+ * is in charge of choosing such ranges.
+ */
+public class PrimeCountTable {
+  private final long number;
+  private final int root;
+
+  /** smallCounts[v] = S(v) for v in [0, root]. */
+  private final long[] smallCounts;
+
+  /** largeCounts[k] = S(number / k) for k in [1, root]. */
+  private final long[] largeCounts;
+
+  /**
+   * @param number
+   *          the number "x" whose prime numbers are counted, which should be
+   *          positive.
+   */
+  public PrimeCountTable(long number) {
+    if (number < 1) {
+      throw new IllegalArgumentException("The number to count primes up to should be positive");
+    }
+    this.number = number;
+    this.root = sqrtFloor(number);
+    this.smallCounts = new long[root + 1];
+    this.largeCounts = new long[root + 1];
+    for (int v = 1; v <= root; ++v) {
+      smallCounts[v] = v - 1;
+      largeCounts[v] = number / v - 1;
+    }
+  }
+
+  /**
+   * @return the integer square root of the number, the largest prime needed
+   *         by the sieve.
+   */
+  public int getRoot() {
+    return root;
+  }
+
+  /**
+   * @return true if "p" is prime, provided that it's no larger than "root" and
+   *         the table has been sieved by all the prime numbers less than "p".
+   */
+  public boolean isPrime(int p) {
+    return smallCounts[p] != smallCounts[p - 1];
+  }
+
+  /**
+   * @return the number of values "number / k" changed when sieving by "p", i.e.
+   *         the updates are for k in [1, largeEnd(p)].
+   */
+  public int largeEnd(int p) {
+    return (int) Math.min(root, number / ((long) p * p));
+  }
+
+  /**
+   * Sieve the values "number / k" for k in [fromK, toK) by the prime "p". The
+   * updates read S(number / (k * p)), so no "k * p" should be in the range.
+   */
+  public void sieveLarge(int p, int fromK, int toK) {
+    final long[] smallCounts = this.smallCounts;
+    final long[] largeCounts = this.largeCounts;
+    long countBelowP = smallCounts[p - 1];
+    for (int k = fromK; k < toK; ++k) {
+      long kp = (long) k * p;
+      long quotientCount = (kp <= root) ? largeCounts[(int) kp] : smallCounts[(int) (number / kp)];
+      largeCounts[k] -= quotientCount - countBelowP;
+    }
+  }
+
+  /**
+   * Sieve the values "v" in [fromV, toV) by the prime "p". The updates read
+   * S(v / p), so no "v / p" should be in the range, and all the large values
+   * should be sieved by "p" first.
+   */
+  public void sieveSmall(int p, int fromV, int toV) {
+    final long[] smallCounts = this.smallCounts;
+    long countBelowP = smallCounts[p - 1];
+    for (int v = fromV; v < toV; ++v) {
+      smallCounts[v] -= smallCounts[v / p] - countBelowP;
+    }
+  }
+
+  /**
+   * @return S(number), which is the number of prime numbers no larger than
+   *         "number" once the table is sieved by every prime up to "root".
+   */
+  public long getCount() {
+    return largeCounts[1];
+  }
+
+  /**
+   * @return the largest integer whose square is no larger than "number".
+   */
+  static int sqrtFloor(long number) {
+    long root = (long) Math.sqrt((double) number);
+    while (root * root > number) {
+      --root;
+    }
+    while ((root + 1) * (root + 1) <= number) {
+      ++root;
+    }
+    return (int) root;
+  }
+}
@@ -0,0 +1,167 @@
+package primeNumberCalculation;
+
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the prime numbers up to a number "x" without sieving all of [0, x],
+ * using Lucy's algorithm on a "PrimeCountTable". It takes O(sqrt(x)) memory
+ * and about O(x^(3/4) / log(x)) time, e.g. seconds for x = 10^12.
+ */
+public class PrimeCounter {
+  /** The largest number accepted by "primeCount", so the table takes < 200MB. */
+  public static final long MAX_NUMBER = 100000000000000L;
+
+  /**
+   * Ranges of values shorter than this are sieved by the calling thread, as
+   * handing them to the worker threads would cost more than it saves.
+   */
+  static final int MIN_LENGTH_FOR_EACH_WORKER = 1 << 15;
+
+  private final int numThreads;
+  private final PrimeCountingWorkerFactory factory;
+  private final ExecutorService executorService;
+
+  /**
+   * @param numThreads
+   *          the number of threads used in the thread pool.
+   * @param factory
+   *          factory object to provide CountingWorker objects
+   * @param executorService
+   *          the long-lived executor running the worker threads.
+   */
+  @Inject
+  public PrimeCounter(@Named("numThreads") Integer numThreads,
+      PrimeCountingWorkerFactory factory,
+      @Named("executorService") ExecutorService executorService) {
+    this.numThreads = numThreads;
+    this.factory = factory;
+    this.executorService = executorService;
+  }
+
+  /**
+   * @return the number of prime numbers no larger than "number".
+   * @throws InterruptedException
+   */
+  public long primeCount(long number) throws InterruptedException {
+    if (number > MAX_NUMBER) {
+      throw new IllegalArgumentException("The number should be no larger than " + MAX_NUMBER);
+    }
+    if (number < 2) {
+      return 0;
+    }
+    PrimeCountTable table = new PrimeCountTable(number);
+    int root = table.getRoot();
+    for (int p = 2; p <= root; ++p) {
+      if (!table.isPrime(p)) {
+        continue;
+      }
+      // The update of "number / k" reads "number / (k * p)", which is updated
+      // later in the same pass. Going through [1, p), [p, p^2), [p^2, p^3),
+      // ... each range only reads from the following ones.
+      int largeEnd = table.largeEnd(p) + 1;
+      for (long fromK = 1; fromK < largeEnd; fromK *= p) {
+        sieve(table, p, true, (int) fromK, (int) Math.min(largeEnd, fromK * p));
+      }
+      // The update of "v" reads "v / p", so going down from "root" through
+      // ranges (toV / p, toV], each range only reads from the following ones.
+      long squared = (long) p * p;
+      for (long toV = root; toV >= squared; ) {
+        long fromV = Math.max(squared, toV / p + 1);
+        sieve(table, p, false, (int) fromV, (int) toV + 1);
+        toV = fromV - 1;
+      }
+    }
+    return table.getCount();
+  }
+
+  /**
+   * Sieve a range of the table by "p", split among the worker threads if it
+   * is long enough.
+   *
+   * @throws InterruptedException
+   */
+  private void sieve(PrimeCountTable table, int p, boolean large, int from, int to)
+      throws InterruptedException {
+    int range = Math.max(MIN_LENGTH_FOR_EACH_WORKER, (to - from + numThreads - 1) / numThreads);
+    if (range >= to - from) {
+      new CountingWorker(0, p, from, to, large, table).call();
+      return;
+    }
+    List<Callable<Integer>> callables = new ArrayList<Callable<Integer>>();
+    for (int i = 0; (long) from + (long) i * range < to; ++i) {
+      int workerFrom = from + i * range;
+      callables.add(factory.create(i, p, workerFrom, (int) Math.min(to, (long) workerFrom + range),
+          large, table));
+    }
+    for (Future<Integer> future : executorService.invokeAll(callables)) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("A counting worker failed", e.getCause());
+      }
+    }
+  }
+
+  public static class CountingWorker implements Callable<Integer> {
+    private final int index;
+    private final int prime;
+    private final int workerLowerBound; // included
+    private final int workerUpperBound; // excluded
+    private final boolean large;
+    private final PrimeCountTable table;
+
+    /**
+     *
+     * @param index
+     *          the index of this worker thread (not used in the current
+     *          implementation, but is useful for debugging).
+     * @param prime
+     *          the prime number the table is sieved by.
+     * @param workerLowerBound
+     *          the lower bound (included) of the values handled by this
+     *          thread.
+     * @param workerUpperBound
+     *          the upper bound (excluded) of the values handled by this
+     *          thread.
+     * @param large
+     *          true if the values are the indexes "k" of the quotients
+     *          "x / k", false if they are the small values themselves.
+     * @param table
+     *          the table being sieved.
+     */
+    @Inject
+    public CountingWorker(
+        @Assisted("index") Integer index,
+        @Assisted("prime") Integer prime,
+        @Assisted("workerLowerBound") Integer workerLowerBound,
+        @Assisted("workerUpperBound") Integer workerUpperBound,
+        @Assisted Boolean large,
+        @Assisted PrimeCountTable table) {
+      this.index = index;
+      this.prime = prime;
+      this.workerLowerBound = workerLowerBound;
+      this.workerUpperBound = workerUpperBound;
+      this.large = large;
+      this.table = table;
+    }
+
+    @Override
+    public Integer call() {
+      if (large) {
+        table.sieveLarge(prime, workerLowerBound, workerUpperBound);
+      } else {
+        table.sieveSmall(prime, workerLowerBound, workerUpperBound);
+      }
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package primeNumberCalculation;
+
+import com.google.inject.assistedinject.Assisted;
+
+/**
+ * Interface used in Assist Inject for the factory providing
+ * "PrimeCounter.CountingWorker"
+ *
+ */
+public interface PrimeCountingWorkerFactory {
+  public PrimeCounter.CountingWorker create(
+      @Assisted("index") Integer index,
+      @Assisted("prime") Integer prime,
+      @Assisted("workerLowerBound") Integer workerLowerBound,
+      @Assisted("workerUpperBound") Integer workerUpperBound,
+      @Assisted Boolean large,
+      @Assisted PrimeCountTable table
+      );
+}
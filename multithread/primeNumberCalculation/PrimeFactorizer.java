@@ -0,0 +1,190 @@
+package primeNumberCalculation;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Factorizes batches of numbers in [1, upperBound) with a
+ * "SmallestPrimeFactorTable", which is built the first time it's needed and
+ * shared by all the users of the same injector.
+ */
+@Singleton
+public class PrimeFactorizer {
+  private final int upperBound;
+  private final int numThreads;
+  private final int minLengthForEachWorker;
+  private final FactorizationWorkerFactory factory;
+  private final ExecutorService executorService;
+  private volatile SmallestPrimeFactorTable table;
+
+  /**
+   * @param upperBound
+   *          the upperBound (excluded) of the numbers to be factorized.
+   * @param numThreads
+   *          the number of worker threads sharing a batch.
+   * @param minLengthForEachWorker
+   *          the smallest number of inputs a worker thread would handle.
+   * @param factory
+   *          factory object to provide FactorizationWorker objects
+   * @param executorService
+   *          the long-lived executor running the worker threads.
+   */
+  @Inject
+  public PrimeFactorizer(@Named("upperBound") Integer upperBound,
+      @Named("numThreads") Integer numThreads,
+      @Named("minLengthForEachWorker") Integer minLengthForEachWorker,
+      FactorizationWorkerFactory factory,
+      @Named("executorService") ExecutorService executorService) {
+    this.upperBound = upperBound;
+    this.numThreads = numThreads;
+    this.minLengthForEachWorker = minLengthForEachWorker;
+    this.factory = factory;
+    this.executorService = executorService;
+  }
+
+  /**
+   * @return the table of the smallest prime factors, built on the first call.
+   */
+  public SmallestPrimeFactorTable getTable() {
+    SmallestPrimeFactorTable result = table;
+    if (result == null) {
+      synchronized (this) {
+        if (table == null) {
+          table = new SmallestPrimeFactorTable(upperBound);
+        }
+        result = table;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Factorize every number of "inputs" in two passes split among the worker
+   * threads: the first one counts the prime factors of each number, so that
+   * the second one can write them straight to their place in the result.
+   *
+   * @param inputs
+   *          the numbers to factorize, each in [1, upperBound).
+   * @return the prime factors of each number of "inputs".
+   * @throws InterruptedException
+   */
+  public Factorizations factorize(int[] inputs) throws InterruptedException {
+    SmallestPrimeFactorTable table = getTable();
+    for (int input : inputs) {
+      if (input < 1 || input >= upperBound) {
+        throw new IllegalArgumentException("The numbers should be in [1, " + upperBound + ")");
+      }
+    }
+    int[] offsets = new int[inputs.length + 1];
+    runWorkers(inputs, table, offsets, false, new int[0]);
+    for (int i = 0; i < inputs.length; ++i) {
+      offsets[i + 1] += offsets[i];
+    }
+    int[] factors = new int[offsets[inputs.length]];
+    runWorkers(inputs, table, offsets, true, factors);
+    return new Factorizations(offsets, factors);
+  }
+
+  /**
+   * Split "inputs" among the worker threads and wait for them to count or
+   * write the prime factors.
+   *
+   * @throws InterruptedException
+   */
+  private void runWorkers(int[] inputs, SmallestPrimeFactorTable table, int[] offsets,
+      boolean writing, int[] factors) throws InterruptedException {
+    int range = Math.max(Math.max(1, minLengthForEachWorker),
+        (inputs.length + numThreads - 1) / numThreads);
+    List<Callable<Integer>> callables = new ArrayList<Callable<Integer>>();
+    for (int i = 0; (long) i * range < inputs.length; ++i) {
+      int workerUpperBound = (int) Math.min(inputs.length, (long) (i + 1) * range);
+      callables.add(factory.create(i, i * range, workerUpperBound, inputs, table, offsets,
+          writing, factors));
+    }
+    for (Future<Integer> future : executorService.invokeAll(callables)) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("A factorization worker failed", e.getCause());
+      }
+    }
+  }
+
+  public static class FactorizationWorker implements Callable<Integer> {
+    private final int index;
+    private final int workerLowerBound; // included
+    private final int workerUpperBound; // excluded
+    private final int[] inputs;
+    private final SmallestPrimeFactorTable table;
+    private final int[] offsets;
+    private final boolean writing;
+    private final int[] factors;
+
+    /**
+     *
+     * @param index
+     *          the index of this worker thread (not used in the current
+     *          implementation, but is useful for debugging).
+     * @param workerLowerBound
+     *          the lower bound (included) of the positions in "inputs" handled
+     *          by this thread.
+     * @param workerUpperBound
+     *          the upper bound (excluded) of the positions in "inputs" handled
+     *          by this thread.
+     * @param inputs
+     *          the numbers to factorize.
+     * @param table
+     *          the table of the smallest prime factors.
+     * @param offsets
+     *          when counting, receives the number of prime factors of
+     *          inputs[i] at i + 1; when writing, gives where the prime factors
+     *          of inputs[i] start in "factors".
+     * @param writing
+     *          false to count the prime factors, true to write them.
+     * @param factors
+     *          receives the prime factors when writing.
+     */
+    @Inject
+    public FactorizationWorker(
+        @Assisted("index") Integer index,
+        @Assisted("workerLowerBound") Integer workerLowerBound,
+        @Assisted("workerUpperBound") Integer workerUpperBound,
+        @Assisted("inputs") int[] inputs,
+        @Assisted SmallestPrimeFactorTable table,
+        @Assisted("offsets") int[] offsets,
+        @Assisted Boolean writing,
+        @Assisted("factors") int[] factors) {
+      this.index = index;
+      this.workerLowerBound = workerLowerBound;
+      this.workerUpperBound = workerUpperBound;
+      this.inputs = inputs;
+      this.table = table;
+      this.offsets = offsets;
+      this.writing = writing;
+      this.factors = factors;
+    }
+
+    @Override
+    public Integer call() {
+      if (writing) {
+        for (int i = workerLowerBound; i < workerUpperBound; ++i) {
+          table.factorize(inputs[i], factors, offsets[i]);
+        }
+      } else {
+        for (int i = workerLowerBound; i < workerUpperBound; ++i) {
+          offsets[i + 1] = table.countFactors(inputs[i]);
+        }
+      }
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package primeNumberCalculation;
+
+import java.util.PrimitiveIterator;
+
+/**
+ * Iterator over the prime numbers of a run of "PrimeNumberCalculator", which
+ * holds the run until it is read to the end or closed.
+ */
+public interface PrimeIterator extends PrimitiveIterator.OfInt, AutoCloseable {
+  /**
+   * Stop the worker threads of the run if it isn't read to the end, wait for
+   * them to leave the flags, and release the flags. Nothing more can be read
+   * afterwards.
+   */
+  @Override
+  public void close();
+}
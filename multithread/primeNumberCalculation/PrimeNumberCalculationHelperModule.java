@@ -1,31 +1,94 @@
 package primeNumberCalculation;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
 import com.google.inject.name.Names;
 
 class PrimeNumberCalculationHelperModule extends AbstractModule {
+  /**
+   * 2^18 numbers take 32KB of flags, which fits in the L1 data cache of most
+   * processors.
+   */
+  static final int DEFAULT_SEGMENT_LENGTH = 1 << 18;
+
   protected final int upperBound;
   protected final int numThreads;
   protected final int minLengthForEachWorker;
+  protected final SieveMode sieveMode;
+  protected final int segmentLength;
+  protected final boolean adaptive;
 
-  public PrimeNumberCalculationHelperModule(int upperBound, int numThreads, int minLengthForEachWorker) {
+  /**
+   * @param adaptive
+   *          true to let "SieveTuner" pick the segment length from the cache
+   *          size and refine it and "minLengthForEachWorker" at runtime.
+   */
+  public PrimeNumberCalculationHelperModule(int upperBound, int numThreads, int minLengthForEachWorker,
+      SieveMode sieveMode, int segmentLength, boolean adaptive) {
+    if (segmentLength <= 0) {
+      throw new IllegalArgumentException("The segment length should be positive");
+    }
     this.upperBound = upperBound;
     this.numThreads = numThreads;
     this.minLengthForEachWorker = minLengthForEachWorker;
+    this.sieveMode = sieveMode;
+    this.segmentLength = segmentLength;
+    this.adaptive = adaptive;
+  }
+
+  public PrimeNumberCalculationHelperModule(int upperBound, int numThreads, int minLengthForEachWorker,
+      SieveMode sieveMode, int segmentLength) {
+    this(upperBound, numThreads, minLengthForEachWorker, sieveMode, segmentLength, false);
+  }
+
+  public PrimeNumberCalculationHelperModule(int upperBound, int numThreads, int minLengthForEachWorker) {
+    this(upperBound, numThreads, minLengthForEachWorker, SieveMode.PER_PRIME, DEFAULT_SEGMENT_LENGTH);
   }  
   @Override
   protected void configure() { 
     install(new FactoryModuleBuilder().implement(new TypeLiteral<Callable<Integer>>() {
     }, PrimeNumberCalculator.WorkerThread.class).build(PrimeNumberWorkerFactory.class));
+    install(new FactoryModuleBuilder().implement(new TypeLiteral<Callable<Integer>>() {
+    }, PrimeNumberCalculator.SegmentWorker.class).build(SegmentWorkerFactory.class));
+    install(new FactoryModuleBuilder().implement(new TypeLiteral<Callable<Integer>>() {
+    }, PrimeCounter.CountingWorker.class).build(PrimeCountingWorkerFactory.class));
+    install(new FactoryModuleBuilder().implement(new TypeLiteral<Callable<Integer>>() {
+    }, PrimeFactorizer.FactorizationWorker.class).build(FactorizationWorkerFactory.class));
+    install(new FactoryModuleBuilder().implement(new TypeLiteral<Callable<Integer>>() {
+    }, PrimalityChecker.PrimalityWorker.class).build(PrimalityWorkerFactory.class));
     bind(Integer.class).annotatedWith(Names.named("upperBound"))
         .toInstance(upperBound); 
     bind(Integer.class).annotatedWith(Names.named("numThreads"))
         .toInstance(new Integer(numThreads));
     bind(Integer.class).annotatedWith(Names.named("minLengthForEachWorker"))
         .toInstance(new Integer(minLengthForEachWorker));
+    bind(SieveMode.class).toInstance(sieveMode);
+    bind(Integer.class).annotatedWith(Names.named("segmentLength"))
+        .toInstance(new Integer(segmentLength));
+    bind(Boolean.class).annotatedWith(Names.named("adaptive"))
+        .toInstance(adaptive);
+    bind(ExecutorService.class).annotatedWith(Names.named("executorService"))
+        .toProvider(new Provider<ExecutorService>() {
+          @Override
+          public ExecutorService get() {
+            return newExecutorService();
+          }
+        }).in(Singleton.class);
+  }
+
+  /**
+   * @return the executor shared by everything created by the injector. By
+   *         default a work-stealing pool of "numThreads" daemon threads, which
+   *         is never shut down and does not keep the JVM alive.
+   */
+  protected ExecutorService newExecutorService() {
+    return new ForkJoinPool(numThreads);
   }
 }
\ No newline at end of file
@@ -42,6 +42,37 @@ public class PrimeNumberCalculationModule extends PrimeNumberCalculationHelperMo
     super(upperBound, numThreads, minLengthForEachWorker);
   }
 
+  /**
+   * 
+   * @param sieveMode
+   *          the way "PrimeNumberCalculator" marks the non-prime numbers.
+   * @param segmentLength
+   *          the number of numbers in each segment in the "SEGMENTED" and
+   *          "WHEEL" modes. It is rounded up to whole words of flags.
+   */
+  public PrimeNumberCalculationModule(
+      int upperBound,
+      int numThreads,
+      int minLengthForEachWorker,
+      SieveMode sieveMode,
+      int segmentLength) {
+    super(upperBound, numThreads, minLengthForEachWorker, sieveMode, segmentLength);
+  }
+
+  public PrimeNumberCalculationModule(int upperBound, int numThreads, SieveMode sieveMode) {
+    this(upperBound, numThreads, 1, sieveMode, DEFAULT_SEGMENT_LENGTH);
+  }
+
+  /**
+   * The adaptive mode: one thread per available processor, and the task
+   * granularity chosen by "SieveTuner" from the cache size and refined at
+   * runtime. "PrimeNumberCalculator" exposes the values chosen.
+   */
+  public PrimeNumberCalculationModule(int upperBound, SieveMode sieveMode) {
+    super(upperBound, Runtime.getRuntime().availableProcessors(), 1, sieveMode,
+        DEFAULT_SEGMENT_LENGTH, true);
+  }
+
 
   public PrimeNumberCalculationModule(int upperBound, int numThreads) {
     this(upperBound, numThreads, 1);
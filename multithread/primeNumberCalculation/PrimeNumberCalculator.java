@@ -5,150 +5,832 @@ import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.name.Named;
 
-import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 import currentTime.CurrentTime;
 
-public class PrimeNumberCalculator {
-  private final int numThreads;
-  private ExecutorService executorService;
+public class PrimeNumberCalculator implements AutoCloseable {
+  /**
+   * The largest upper bound (excluded) accepted by the range queries, so that
+   * every base prime fits in an "int".
+   */
+  public static final long MAX_RANGE_UPPER_BOUND =
+      (long) (Integer.MAX_VALUE - 1) * (Integer.MAX_VALUE - 1);
 
-  private final List<Boolean> primeNumberFlags; // Flags indicating whether a
-                                                // number is prime or not. #####instead of separate the comments in different lines, I would rather making them a new line.
+  private final int numThreads;
+  private final ExecutorService executorService;
   private final int upperBound;
-  private long startTime;
-  private long elapsedTime;
-  private final int minLengthForEachWorker;
+  private volatile long elapsedTime;
   private final PrimeNumberWorkerFactory factory;
+  private final SieveMode sieveMode;
+  private final SieveTuner tuner;
+  private final SegmentWorkerFactory segmentFactory;
+  private final BasePrimeCache basePrimeCache;
   private final CurrentTime currentTime;
 
+  /** The flags holding memory outside of the Java heap, not released yet. */
+  private final Set<SieveFlags> openFlags = ConcurrentHashMap.newKeySet();
+
+  /** The runs neither read to the end nor given up yet. */
+  private final Set<PrimeReader> openRuns = ConcurrentHashMap.newKeySet();
+
   /**
    * 
    * @param upperBound
    *          the upperBound (excluded) of the numbers to be considered
    * @param numThreads
    *          the number of threads used in the thread pool.
-   * @param minLengthForEachWorker
-   *          the smallest size of the list of numbers a worker thread would
-   *          handle.
    * @param factory
    *          factory object to provide WorkerThread objects
+   * @param sieveMode
+   *          the way we mark the non-prime numbers.
+   * @param tuner
+   *          chooses the smallest size of the list of numbers a worker thread
+   *          would handle, and the number of numbers in each segment in the
+   *          other modes than "PER_PRIME".
+   * @param segmentFactory
+   *          factory object to provide SegmentWorker objects
+   * @param basePrimeCache
+   *          cache of the base primes used by the segmented sieves.
    * @param currentTime
    *          CurrentTime object used to get current time.
+   * @param executorService
+   *          the long-lived executor running the worker threads, shared by
+   *          all the runs.
    */
   @Inject
   public PrimeNumberCalculator(@Named("upperBound") Integer upperBound, 
       @Named("numThreads") Integer numThreads,
-      @Named("minLengthForEachWorker") Integer minLengthForEachWorker,
-      PrimeNumberWorkerFactory factory, CurrentTime currentTime) {
+      PrimeNumberWorkerFactory factory,
+      SieveMode sieveMode,
+      SieveTuner tuner,
+      SegmentWorkerFactory segmentFactory,
+      BasePrimeCache basePrimeCache,
+      CurrentTime currentTime,
+      @Named("executorService") ExecutorService executorService) {
     this.numThreads = numThreads;
-    this.executorService = Executors.newCachedThreadPool();
-    this.primeNumberFlags = new ArrayList<Boolean>(Arrays.asList(new Boolean[upperBound]));
+    this.executorService = executorService;
+    this.sieveMode = sieveMode;
     this.upperBound = upperBound;
-    this.minLengthForEachWorker = minLengthForEachWorker;
     this.factory = factory;
+    this.tuner = tuner;
+    this.segmentFactory = segmentFactory;
+    this.basePrimeCache = basePrimeCache;
     this.currentTime = currentTime;
   }
 
+  /**
+   * @return the time taken by the last run to finish.
+   */
   public long getElapsedTime() {
     return elapsedTime;
   }
 
-  private void refreshCalculator() {
-    executorService = Executors.newCachedThreadPool();
-    Collections.fill(primeNumberFlags, false); 
+  public int getNumThreads() {
+    return numThreads;
   }
 
   /**
-   * Each time we find a prime number, we mark all its multiples to be non-prime
-   * using multiple threads, with each thread handling a trunk of numbers in the
-   * interval from the square of the current prime number to the upper bound of
-   * numbers we need to consider. Then we go to the next un-marked number which
-   * will be our next prime number.
+   * @return the segment length the next run over [0, upperBound) will use.
+   */
+  public int getSegmentLength() {
+    return tuner.segmentLengthFor(upperBound);
+  }
+
+  /**
+   * @return the "minLengthForEachWorker" the next run in the "PER_PRIME" mode
+   *         will use.
+   */
+  public int getMinLengthForEachWorker() {
+    return tuner.getMinLengthForEachWorker();
+  }
+
+  /**
+   * Cancel the runs still in progress and wait for their worker threads to
+   * leave the flags, then release the memory of the flags still held outside
+   * of the Java heap, including the ones handed out by "sieveAll". The
+   * threads reading a cancelled run get a "CancellationException".
+   */
+  @Override
+  public void close() {
+    for (PrimeReader reader : openRuns) {
+      reader.close();
+    }
+    for (SieveFlags flags : openFlags) {
+      release(flags);
+    }
+  }
+
+  /**
+   * @return flags covering [lowerBound, lowerBound + size), only storing the
+   *         numbers coprime to 30 in the "WHEEL" and "OFF_HEAP_WHEEL" modes.
+   */
+  private SieveFlags newFlags(long lowerBound, long size) {
+    switch (sieveMode) {
+      case WHEEL:
+        return new WheelPrimeNumberFlags(lowerBound, (int) size);
+      case OFF_HEAP_WHEEL:
+        SieveFlags flags = new OffHeapPrimeNumberFlags(lowerBound, size);
+        openFlags.add(flags);
+        return flags;
+      default:
+        return new PrimeNumberFlags(lowerBound, (int) size);
+    }
+  }
+
+  private void release(SieveFlags flags) {
+    openFlags.remove(flags);
+    flags.close();
+  }
+
+  /**
+   * Mark the non-prime numbers in the way given by "sieveMode", then collect
+   * the numbers left un-marked.
    * 
    * @return All the prime numbers in [0, upperBound).
    * @throws InterruptedException 
    */
   public List<Integer> run() throws InterruptedException {
-    startTime = currentTime.NowMillis();
-    refreshCalculator();
-
-    List<Integer> result = new ArrayList<Integer>(); 
-    if (upperBound < 2) {
+    final List<Integer> result = new ArrayList<Integer>(); 
+    if (upperBound == 2) {
+      result.add(2); 
       return result;
     }
+
+    forEachPrime(new IntConsumer() {
+      @Override
+      public void accept(int prime) {
+        result.add(prime);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Same as "runAsync(listener)" without a listener.
+   */
+  public CompletableFuture<List<Integer>> runAsync() {
+    return runAsync(null);
+  }
+
+  /**
+   * Start the sieve and return at once. Nothing waits for the worker threads:
+   * whichever thread finishes a segment collects the prime numbers of the
+   * segments ready in order, and the one finishing the last segment completes
+   * the future, so any number of runs may share the executor. When the
+   * returned future is completed by anyone else, e.g. cancelled or timed out
+   * by "orTimeout", the worker threads stop after the segments they are
+   * sieving, or after the current base prime in the "PER_PRIME" mode, and the
+   * last one to leave releases the flags.
+   *
+   * @param listener
+   *          if not null, told about the progress after each segment, on the
+   *          thread collecting it.
+   * @return the future of all the prime numbers in [0, upperBound).
+   */
+  public CompletableFuture<List<Integer>> runAsync(final SieveProgressListener listener) {
+    final CompletableFuture<List<Integer>> result = new CompletableFuture<List<Integer>>();
     if (upperBound == 2) {
-      result.add(2); 
+      List<Integer> primes = new ArrayList<Integer>();
+      primes.add(2);
+      result.complete(primes);
       return result;
     }
+    final PrimeReader reader = newReader();
+    final AsyncCollector collector = new AsyncCollector(reader, listener, result);
+    reader.segmentTracker.setOnChange(collector);
+    result.whenComplete((primes, failure) -> {
+      if (failure != null) {
+        reader.segmentTracker.cancel();
+      }
+    });
+    if (sieveMode == SieveMode.PER_PRIME) {
+      sieveByPrimes(reader.flags, reader.segmentTracker);
+    } else {
+      sieveBySegments(reader.segmentTracker, reader.flags);
+    }
+    collector.run();
+    return result;
+  }
 
-    int currentNum = 2;
-    while (currentNum * currentNum < upperBound) {
-      result.add(currentNum);
-      primeNumberFlags.set(currentNum, true);
-      int currentNumSquared = currentNum * currentNum;
-      int range = (upperBound - currentNumSquared) / numThreads;
-      int numTasks = numThreads;
-      if (range < minLengthForEachWorker) {
-        numTasks = (upperBound - currentNumSquared) / minLengthForEachWorker
-            + (((upperBound - currentNumSquared) % minLengthForEachWorker == 0) ? 0 : 1);
-        range = minLengthForEachWorker;
-      } // We might decrease the number of worker threads
-        // if there are not many numbers to check.
+  /**
+   * Pass the prime numbers in [0, upperBound) to "consumer" in increasing
+   * order without boxing them. In the "SEGMENTED" and "WHEEL" modes, the
+   * prime numbers of a segment are passed as soon as all the segments before
+   * it are sieved, while the worker threads keep sieving the following ones.
+   * If "consumer" throws, the run is stopped before the exception goes on.
+   * 
+   * @throws InterruptedException
+   */
+  public void forEachPrime(final IntConsumer consumer) throws InterruptedException {
+    forEachPrimeBlock(new PrimeBlockConsumer() {
+      @Override
+      public void accept(int[] primes, int count) {
+        for (int i = 0; i < count; ++i) {
+          consumer.accept(primes[i]);
+        }
+      }
+    });
+  }
+
+  /**
+   * Same as "forEachPrime", but the prime numbers are passed one segment at a
+   * time in a reused array, so the memory used does not grow with the number
+   * of prime numbers found.
+   * 
+   * @throws InterruptedException
+   */
+  public void forEachPrimeBlock(PrimeBlockConsumer consumer) throws InterruptedException {
+    PrimeReader reader = startSieve();
+    try {
+      while (reader.readNextSegment()) {
+        consumer.accept(reader.primes, reader.count);
+      }
+    } finally {
+      reader.close();
+    }
+  }
 
-      Set<Callable<Integer>> callables = new HashSet<Callable<Integer>>();
-      for (int i = 0; i < numTasks; ++i) {
-        if (i < numTasks - 1) {
-          callables.add(factory.create(
-              currentNumSquared + i * range, 
-              currentNumSquared + (i + 1) * range, 
-              currentNum, 
-              i, 
-              primeNumberFlags));
-        } else {
-          callables.add(factory.create(currentNumSquared + i * range, upperBound, currentNum, i,
-              primeNumberFlags));
+  /**
+   * Start the sieve and return an iterator over the prime numbers in
+   * [0, upperBound). Each call to "hasNext" waits, if needed, for the next
+   * segment to be sieved. The caller should either read the iterator to the
+   * end or close it, otherwise the worker threads keep sieving a run nobody
+   * reads and its flags are only released by "close" of the calculator.
+   * 
+   * @throws InterruptedException
+   */
+  public PrimeIterator primeIterator() throws InterruptedException {
+    final PrimeReader reader = startSieve();
+    return new PrimeIterator() {
+      private int position = 0;
+
+      @Override
+      public boolean hasNext() {
+        while (position >= reader.count) {
+          try {
+            if (!reader.readNextSegment()) {
+              return false;
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the sieve", e);
+          }
+          position = 0;
         }
+        return true;
       }
-      
-      executorService.invokeAll(callables);
-     
-      currentNum = updateCurrentNum(currentNum);
+
+      @Override
+      public int nextInt() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return reader.primes[position++];
+      }
+
+      @Override
+      public void close() {
+        reader.close();
+      }
+    };
+  }
+
+  /**
+   * @return a sequential stream over the prime numbers in [0, upperBound),
+   *         backed by "primeIterator". As for the iterator, the stream should
+   *         be closed, e.g. in a try-with-resources, unless a terminal
+   *         operation reads it to the end; closing it stops the run.
+   * @throws InterruptedException
+   */
+  public IntStream primeStream() throws InterruptedException {
+    PrimeIterator iterator = primeIterator();
+    return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(iterator,
+        Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.NONNULL),
+        false).onClose(iterator::close);
+  }
+
+  /**
+   * Pass the prime numbers in [lowerBound, upperBound) to "consumer" in
+   * increasing order. Only this window is sieved, split into segments handled
+   * by the worker threads, using the cached base primes up to the square root
+   * of "upperBound". The "PER_PRIME" mode sieves windows like the "SEGMENTED"
+   * mode does.
+   * 
+   * @param lowerBound
+   *          the lower bound (included) of the prime numbers to find.
+   * @param upperBound
+   *          the upper bound (excluded) of the prime numbers to find. It should
+   *          be less than "MAX_RANGE_UPPER_BOUND", and the window should hold
+   *          no more than Integer.MAX_VALUE numbers, except in the
+   *          "OFF_HEAP_WHEEL" mode.
+   * @throws InterruptedException
+   */
+  public void forEachPrimeInRange(long lowerBound, long upperBound, LongConsumer consumer)
+      throws InterruptedException {
+    if (lowerBound < 0 || lowerBound > upperBound || upperBound > MAX_RANGE_UPPER_BOUND) {
+      throw new IllegalArgumentException("The range should satisfy "
+          + "0 <= lowerBound <= upperBound <= " + MAX_RANGE_UPPER_BOUND);
+    }
+    if (sieveMode != SieveMode.OFF_HEAP_WHEEL && upperBound - lowerBound > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The range should hold no more than "
+          + Integer.MAX_VALUE + " numbers");
     }
+    long startTime = currentTime.NowMillis();
+    SieveFlags flags = newFlags(lowerBound, upperBound - lowerBound);
+    int segmentLength = tuner.segmentLengthFor(upperBound - lowerBound);
+    SegmentTracker segmentTracker = new SegmentTracker(flags.lowerBound(), upperBound,
+        alignSegmentLength(segmentLength, flags));
+    sieveBySegments(segmentTracker, flags);
+    PrimeReader reader = new PrimeReader(segmentTracker, flags, startTime, segmentLength);
+    try {
+      while (reader.readNextSegment(lowerBound, consumer)) {
+      }
+    } finally {
+      reader.close();
+    }
+  }
 
-    for (int i = currentNum; i < upperBound; ++i) {
-      if (!primeNumberFlags.get(i)) {
-        result.add(i);
+  /**
+   * @return the prime numbers in [lowerBound, upperBound) in increasing order,
+   *         found by "forEachPrimeInRange".
+   * @throws InterruptedException
+   */
+  public long[] primesInRange(long lowerBound, long upperBound) throws InterruptedException {
+    LongStream.Builder result = LongStream.builder();
+    forEachPrimeInRange(lowerBound, upperBound, result);
+    return result.build().toArray();
+  }
+
+  /**
+   * Mark the non-prime numbers in [0, upperBound) and wait for all of them.
+   *
+   * @return the flags of this run, which stay with the calculator until it is
+   *         closed.
+   * @throws InterruptedException
+   */
+  SieveFlags sieveAll() throws InterruptedException {
+    PrimeReader reader = startSieve();
+    reader.keepFlags = true;
+    try {
+      while (reader.awaitNextSegment()) {
       }
+    } finally {
+      reader.close();
     }
+    return reader.flags;
+  }
 
-    executorService.shutdown();
-    elapsedTime = currentTime.NowMillis() - startTime;
-    return result;
+  /**
+   * Mark the non-prime numbers in the way given by "sieveMode". It returns as
+   * soon as the worker threads are started. Each run has its own flags, so
+   * runs may overlap.
+   * 
+   * @return the reader collecting the prime numbers segment by segment.
+   */
+  private PrimeReader startSieve() {
+    PrimeReader reader = newReader();
+    if (sieveMode == SieveMode.PER_PRIME) {
+      sieveByPrimes(reader.flags, reader.segmentTracker);
+    } else {
+      sieveBySegments(reader.segmentTracker, reader.flags);
+    }
+    return reader;
+  }
+
+  /**
+   * @return a reader over new flags covering [0, upperBound), not sieved yet.
+   */
+  private PrimeReader newReader() {
+    long startTime = currentTime.NowMillis();
+    SieveFlags primeNumberFlags = newFlags(0, upperBound);
+    int segmentLength = tuner.segmentLengthFor(upperBound);
+    SegmentTracker segmentTracker = new SegmentTracker(0, upperBound,
+        alignSegmentLength(segmentLength, primeNumberFlags));
+    return new PrimeReader(segmentTracker, primeNumberFlags, startTime, segmentLength);
+  }
+
+  /**
+   * Each time we find a prime number, we mark all its multiples to be non-prime
+   * using multiple threads, with each thread handling a trunk of numbers in the
+   * interval from the square of the current prime number to the upper bound of
+   * numbers we need to consider. Then we go to the next un-marked number which
+   * will be our next prime number. The trunks are aligned to the words of
+   * "primeNumberFlags", so that no two threads write the same word. Nobody
+   * waits for the trunks of a prime: the thread finishing the last one moves
+   * on to the next prime, and the one finishing the last prime marks all the
+   * segments of "segmentTracker" done. We stop early if "segmentTracker" is
+   * cancelled. The multiples of the smallest primes are marked beforehand by
+   * "presieve". The time taken by each prime is handed to "tuner", which may
+   * change the smallest trunk. The whole sieve counts as one worker of
+   * "segmentTracker".
+   */
+  private void sieveByPrimes(SieveFlags primeNumberFlags, SegmentTracker segmentTracker) {
+    if (!segmentTracker.enterWorker()) {
+      return;
+    }
+    int presieved;
+    try {
+      presieved = primeNumberFlags.presieve(0, upperBound);
+    } catch (RuntimeException | Error e) {
+      segmentTracker.markFailed(e);
+      segmentTracker.exitWorker();
+      throw e;
+    }
+    new PrimePass(primeNumberFlags, segmentTracker).start(presieved);
+  }
+
+  /**
+   * Split the numbers covered by "flags" into segments of "segmentLength"
+   * numbers which fit in the cache. Each worker thread repeatedly takes the
+   * next segment and marks the multiples of every base prime (the prime
+   * numbers whose square is less than the upper bound of "flags") in it.
+   * Nobody waits for the worker threads as a whole; readers wait for the
+   * segments they need through "segmentTracker".
+   */
+  private void sieveBySegments(SegmentTracker segmentTracker, SieveFlags flags) {
+    int[] basePrimes = basePrimeCache.primesUpTo(sqrtFloor(flags.upperBound() - 1));
+    for (int i = 0; i < Math.min(numThreads, segmentTracker.getNumSegments()); ++i) {
+      executorService.submit(segmentFactory.create(i, segmentTracker, basePrimes, flags));
+    }
+  }
+
+  /**
+   * @return the largest integer whose square is no larger than "number", or 0
+   *         if "number" is negative.
+   */
+  private static int sqrtFloor(long number) {
+    if (number <= 0) {
+      return 0;
+    }
+    long root = (long) Math.sqrt((double) number);
+    while (root * root > number) {
+      --root;
+    }
+    while ((root + 1) * (root + 1) <= number) {
+      ++root;
+    }
+    return (int) root;
+  }
+
+  /**
+   * Round "segmentLength" up to a multiple of the word span of "flags", so
+   * that no two segments share a word.
+   */
+  private static int alignSegmentLength(int segmentLength, SieveFlags flags) {
+    int wordSpan = flags.wordSpan();
+    return (int) Math.min(((long) segmentLength + wordSpan - 1) / wordSpan * wordSpan,
+        Integer.MAX_VALUE / wordSpan * wordSpan);
   }
 
   /**
    * Find the next prime number.
    * 
+   * @param primeNumberFlags
+   *          the flags of the current run.
    * @param oldNum
    *          the current prime number.
    * @return: the next prime number
    */
-  private int updateCurrentNum(int oldNum) {
-    for (int i = oldNum + 1; i < upperBound; ++i) {
-      if (!primeNumberFlags.get(i)) {
-        return i;
+  private static int updateCurrentNum(SieveFlags primeNumberFlags, int oldNum) {
+    return (int) primeNumberFlags.nextPrime(oldNum + 1);
+  }
+
+  /**
+   * Go through the segments in increasing order, waiting for each one to be
+   * sieved, and collect the prime numbers of a segment into "primes" when they
+   * are asked for. The reader stays in "openRuns" until it is finished or
+   * given up, and the flags are only read while holding its lock, so that
+   * "close" never releases them under a reading thread.
+   */
+  private class PrimeReader {
+    private final SegmentTracker segmentTracker;
+    private final SieveFlags flags;
+    private final long startTime;
+    private final int tunedSegmentLength;
+    private final int[] primes;
+    private int count = 0;
+    private int nextSegment = 0;
+    private long segmentLowerBound;
+    private long segmentUpperBound;
+    private volatile boolean finished = false;
+    private boolean keepFlags = false;
+
+    /**
+     * @param tunedSegmentLength
+     *          the segment length given by the tuner, before being aligned to
+     *          the words of "flags".
+     */
+    PrimeReader(SegmentTracker segmentTracker, SieveFlags flags, long startTime,
+        int tunedSegmentLength) {
+      this.segmentTracker = segmentTracker;
+      this.flags = flags;
+      this.startTime = startTime;
+      this.tunedSegmentLength = tunedSegmentLength;
+      long segmentLength = (segmentTracker.getNumSegments() == 0) ? 0
+          : segmentTracker.segmentUpperBound(0) - segmentTracker.segmentLowerBound(0);
+      // At most 2 and the odd numbers of a segment are prime.
+      this.primes = new int[(int) (segmentLength / 2 + 2)];
+      openRuns.add(this);
+    }
+
+    /**
+     * Wait for the next segment to be sieved.
+     * 
+     * @return false if all the segments have been read.
+     * @throws InterruptedException
+     */
+    synchronized boolean awaitNextSegment() throws InterruptedException {
+      if (nextSegment == segmentTracker.getNumSegments()) {
+        if (segmentTracker.isCancelled()) {
+          throw new CancellationException("The sieve was cancelled");
+        }
+        finish();
+        return false;
+      }
+      int segment = nextSegment++;
+      segmentTracker.awaitDone(segment);
+      segmentLowerBound = segmentTracker.segmentLowerBound(segment);
+      segmentUpperBound = segmentTracker.segmentUpperBound(segment);
+      return true;
+    }
+
+    /**
+     * Wait for the next segment and collect its prime numbers into "primes".
+     * Only used when the numbers fit in an "int".
+     * 
+     * @return false if all the segments have been read.
+     * @throws InterruptedException
+     */
+    synchronized boolean readNextSegment() throws InterruptedException {
+      count = 0;
+      if (!awaitNextSegment()) {
+        return false;
+      }
+      for (long i = flags.nextPrime(segmentLowerBound); i < segmentUpperBound;
+          i = flags.nextPrime(i + 1)) {
+        primes[count++] = (int) i;
+      }
+      return true;
+    }
+
+    /**
+     * Wait for the next segment and pass its prime numbers no less than
+     * "lowerBound" to "consumer".
+     * 
+     * @return false if all the segments have been read.
+     * @throws InterruptedException
+     */
+    synchronized boolean readNextSegment(long lowerBound, LongConsumer consumer)
+        throws InterruptedException {
+      if (!awaitNextSegment()) {
+        return false;
+      }
+      for (long i = flags.nextPrime(Math.max(lowerBound, segmentLowerBound));
+          i < segmentUpperBound; i = flags.nextPrime(i + 1)) {
+        consumer.accept(i);
+      }
+      return true;
+    }
+
+    /**
+     * Give up the run if it isn't read to the end: stop handing out segments,
+     * then wait for the worker threads and release the flags as "abandon"
+     * does. Reading afterwards fails with a "CancellationException".
+     */
+    void close() {
+      if (!finished) {
+        segmentTracker.cancel();
+        abandon();
+      }
+    }
+
+    /**
+     * Give up a cancelled run: wait for the worker threads to leave the
+     * flags, then release them once no thread is reading them. The lock is
+     * only taken after the wait, since a worker thread may need it to collect
+     * its segment in "runAsync", and a reader waiting for a segment under the
+     * lock is woken up by the cancellation.
+     */
+    void abandon() {
+      try {
+        segmentTracker.awaitAll();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      synchronized (this) {
+        if (!finished) {
+          finished = true;
+          count = 0;
+          openRuns.remove(this);
+          release(flags);
+        }
+      }
+    }
+
+    private void finish() {
+      if (!finished) {
+        finished = true;
+        openRuns.remove(this);
+        if (!keepFlags) {
+          release(flags);
+        }
+        elapsedTime = currentTime.NowMillis() - startTime;
+        int numSegments = segmentTracker.getNumSegments();
+        if (numSegments > 0) {
+          tuner.recordSegments(tunedSegmentLength, numSegments,
+              segmentTracker.segmentUpperBound(numSegments - 1)
+                  - segmentTracker.segmentLowerBound(0),
+              segmentTracker.getSieveTime());
+        }
+      }
+    }
+  }
+
+  /**
+   * The passes of the "PER_PRIME" sieve, one per base prime. Each pass counts
+   * its trunks still running, and the thread taking the count to zero starts
+   * the next pass, so no thread of the executor ever waits for another one.
+   */
+  private class PrimePass {
+    private final SieveFlags primeNumberFlags;
+    private final SegmentTracker segmentTracker;
+    private final AtomicInteger runningTasks = new AtomicInteger(0);
+    private volatile boolean failed = false;
+    private int currentNum;
+    private int numTasks;
+    private long taskStartTime;
+
+    PrimePass(SieveFlags primeNumberFlags, SegmentTracker segmentTracker) {
+      this.primeNumberFlags = primeNumberFlags;
+      this.segmentTracker = segmentTracker;
+    }
+
+    /**
+     * Submit the trunks of the first prime after "previousNum", or end the
+     * sieve if there is none left. The fields are only written here, before
+     * the trunks are submitted and after they have all finished.
+     */
+    void start(int previousNum) {
+      try {
+        currentNum = updateCurrentNum(primeNumberFlags, previousNum);
+      } catch (RuntimeException | Error e) {
+        fail(e);
+        segmentTracker.exitWorker();
+        return;
+      }
+      if ((long) currentNum * currentNum >= upperBound || segmentTracker.isCancelled()) {
+        segmentTracker.markAllDone();
+        segmentTracker.exitWorker();
+        return;
+      }
+      int currentNumSquared = currentNum * currentNum;
+      int range = (upperBound - currentNumSquared) / numThreads;
+      int minLengthForEachWorker = tuner.getMinLengthForEachWorker();
+      if (range < minLengthForEachWorker) {
+        range = minLengthForEachWorker;
+      } // We might decrease the number of worker threads
+        // if there are not many numbers to check.
+
+      // Round the trunks up to whole words, starting from the word holding
+      // "currentNumSquared".
+      int wordSpan = primeNumberFlags.wordSpan();
+      range = (range + wordSpan - 1) / wordSpan * wordSpan;
+      int trunkStart = currentNumSquared - currentNumSquared % wordSpan;
+      numTasks = (int) (((long) upperBound - trunkStart + range - 1) / range);
+
+      // One more for this thread, so that the pass can't end while the trunks
+      // are being submitted.
+      runningTasks.set(numTasks + 1);
+      taskStartTime = System.nanoTime();
+      int submitted = 0;
+      try {
+        for (; submitted < numTasks; ++submitted) {
+          long workerLowerBound = Math.max(currentNumSquared,
+              trunkStart + (long) submitted * range);
+          long workerUpperBound = Math.min(upperBound,
+              trunkStart + (long) (submitted + 1) * range);
+          final Callable<Integer> callable = factory.create(
+              (int) workerLowerBound,
+              (int) workerUpperBound,
+              currentNum,
+              submitted,
+              primeNumberFlags);
+          executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                callable.call();
+              } catch (Exception | Error e) {
+                fail(e);
+              }
+              taskDone(1);
+            }
+          });
+        }
+      } catch (RuntimeException | Error e) {
+        fail(e);
+      }
+      taskDone(numTasks - submitted + 1);
+    }
+
+    private void fail(Throwable cause) {
+      failed = true;
+      segmentTracker.markFailed(cause);
+    }
+
+    private void taskDone(int numDone) {
+      if (runningTasks.addAndGet(-numDone) != 0) {
+        return;
+      }
+      if (failed) {
+        segmentTracker.exitWorker();
+        return;
+      }
+      tuner.recordTasks(numTasks, upperBound - currentNum * currentNum,
+          System.nanoTime() - taskStartTime);
+      start(currentNum);
+    }
+  }
+
+  /**
+   * Collects the prime numbers of an asynchronous run, called back by its
+   * "SegmentTracker" on the threads making progress. Only one thread at a
+   * time goes through the segments ready, in order; a call made meanwhile
+   * makes that thread look again before leaving. Once the future is done
+   * otherwise, the flags are given up as soon as no worker thread is in them.
+   */
+  private class AsyncCollector implements Runnable {
+    private final PrimeReader reader;
+    private final SieveProgressListener listener;
+    private final CompletableFuture<List<Integer>> result;
+    private final List<Integer> primes = new ArrayList<Integer>();
+    private final AtomicInteger pendingCalls = new AtomicInteger(0);
+
+    AsyncCollector(PrimeReader reader, SieveProgressListener listener,
+        CompletableFuture<List<Integer>> result) {
+      this.reader = reader;
+      this.listener = listener;
+      this.result = result;
+    }
+
+    @Override
+    public void run() {
+      if (pendingCalls.getAndIncrement() != 0) {
+        return;
+      }
+      do {
+        collect();
+      } while (pendingCalls.decrementAndGet() != 0);
+    }
+
+    private void collect() {
+      SegmentTracker segmentTracker = reader.segmentTracker;
+      int numSegments = segmentTracker.getNumSegments();
+      try {
+        while (!result.isDone() && (reader.nextSegment == numSegments
+            || segmentTracker.isDone(reader.nextSegment))) {
+          if (!reader.readNextSegment()) {
+            result.complete(primes);
+            return;
+          }
+          for (int i = 0; i < reader.count; ++i) {
+            primes.add(reader.primes[i]);
+          }
+          if (listener != null) {
+            listener.onProgress(reader.nextSegment, numSegments, reader.segmentUpperBound,
+                primes.size());
+          }
+        }
+      } catch (CancellationException e) {
+        result.cancel(false);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        result.completeExceptionally(e);
+      } catch (RuntimeException | Error e) {
+        result.completeExceptionally(e);
+      }
+      if (result.isDone() && segmentTracker.isIdle()) {
+        reader.abandon();
       }
     }
-    return upperBound;
   }
 
   public static class WorkerThread implements Callable<Integer> {
@@ -156,7 +838,7 @@ public class PrimeNumberCalculator {
     private final int workerUpperBound; // excluded
     private final int target;
     private final int index;
-    private final List<Boolean> primeNumberFlags;
+    private final SieveFlags primeNumberFlags;
 
     /**
      * 
@@ -181,7 +863,7 @@ public class PrimeNumberCalculator {
         @Assisted("workerUpperBound") Integer workerUpperBound, 
         @Assisted("target") Integer target,
         @Assisted("index") Integer index, 
-        @Assisted List<Boolean> primeNumberFlags) {
+        @Assisted SieveFlags primeNumberFlags) {
       this.workerLowerBound = workerLowerBound;
       this.workerUpperBound = workerUpperBound;
       this.target = target;
@@ -201,14 +883,78 @@ public class PrimeNumberCalculator {
         return -1;
       }
 
-      int lowerMultiple = workerLowerBound / target + ((workerLowerBound % target == 0) ? 0 : 1);
-      int upperMultiple = workerUpperBound / target + ((workerUpperBound % target == 0) ? 0 : 1);
+      primeNumberFlags.markMultiplesOf(target, workerLowerBound, workerUpperBound);
+      return 0;
+    }
+  }
+
+  public static class SegmentWorker implements Callable<Integer> {
+    private final int index;
+    private final SegmentTracker segmentTracker;
+    private final int[] basePrimes;
+    private final SieveFlags primeNumberFlags;
 
-      for (int multiple = lowerMultiple; multiple < upperMultiple; ++multiple) {
-        primeNumberFlags.set(target * multiple, true);
+    /**
+     * 
+     * @param index
+     *          the index of this worker thread (not used in the current
+     *          implementation, but is useful for debugging).
+     * @param segmentTracker
+     *          hands out the segments and collects the finished ones, shared
+     *          by all the worker threads.
+     * @param basePrimes
+     *          the prime numbers whose multiples are to be marked.
+     * @param primeNumberFlags
+     *          Flags indicating whether a number is prime or not.
+     */
+    @Inject
+    public SegmentWorker(
+        @Assisted("index") Integer index,
+        @Assisted SegmentTracker segmentTracker,
+        @Assisted int[] basePrimes,
+        @Assisted SieveFlags primeNumberFlags) {
+      this.index = index;
+      this.segmentTracker = segmentTracker;
+      this.basePrimes = basePrimes;
+      this.primeNumberFlags = primeNumberFlags;
+    }
+
+    /**
+     * Take segments until there is none left, and mark the multiples of all
+     * the base primes in each segment before taking the next one, so that the
+     * flags being written stay in the cache. The smallest base primes are
+     * handled at once by "presieve".
+     */
+    @Override
+    public Integer call() throws Exception {
+      if (!segmentTracker.enterWorker()) {
+        return 0;
+      }
+      try {
+        for (int segment = segmentTracker.takeSegment(); segment >= 0;
+            segment = segmentTracker.takeSegment()) {
+          long segmentLowerBound = segmentTracker.segmentLowerBound(segment);
+          long segmentUpperBound = segmentTracker.segmentUpperBound(segment);
+          long segmentStartTime = System.nanoTime();
+          int presieved = primeNumberFlags.presieve(segmentLowerBound, segmentUpperBound);
+          for (int prime : basePrimes) {
+            if ((long) prime * prime >= segmentUpperBound) {
+              break;
+            }
+            if (prime > presieved) {
+              primeNumberFlags.markMultiplesOf(prime, segmentLowerBound, segmentUpperBound);
+            }
+          }
+          segmentTracker.addSieveTime(System.nanoTime() - segmentStartTime);
+          segmentTracker.markDone(segment);
+        }
+      } catch (RuntimeException | Error e) {
+        segmentTracker.markFailed(e);
+        throw e;
+      } finally {
+        segmentTracker.exitWorker();
       }
       return 0;
     }
   }
-
 }
@@ -1,9 +1,13 @@
 package primeNumberCalculation;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -12,9 +16,25 @@ import org.junit.runners.Parameterized.Parameters;
 import org.junit.runners.Parameterized;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 @RunWith(value = Parameterized.class)
 public class PrimeNumberCalculatorTest {
@@ -22,12 +42,12 @@ public class PrimeNumberCalculatorTest {
   final int minLengthForEachWorker;
   private final int fakeTimeStep;
   private Injector injector;
-  private List<Integer> correctPrimeLessThan500 = new ArrayList<Integer>(Arrays.asList(2, 3, 5, 7,
-      11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53, 59, 61, 67, 71, 73, 79, 83, 89, 97, 101, 103,
-      107, 109, 113, 127, 131, 137, 139, 149, 151, 157, 163, 167, 173, 179, 181, 191, 193, 197,
-      199, 211, 223, 227, 229, 233, 239, 241, 251, 257, 263, 269, 271, 277, 281, 283, 293, 307,
-      311, 313, 317, 331, 337, 347, 349, 353, 359, 367, 373, 379, 383, 389, 397, 401, 409, 419,
-      421, 431, 433, 439, 443, 449, 457, 461, 463, 467, 479, 487, 491, 499));
+  static final List<Integer> correctPrimeLessThan500 = Collections.unmodifiableList(
+      Arrays.asList(2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53, 59, 61, 67, 71, 73,
+      79, 83, 89, 97, 101, 103, 107, 109, 113, 127, 131, 137, 139, 149, 151, 157, 163, 167, 173,
+      179, 181, 191, 193, 197, 199, 211, 223, 227, 229, 233, 239, 241, 251, 257, 263, 269, 271, 277,
+      281, 283, 293, 307, 311, 313, 317, 331, 337, 347, 349, 353, 359, 367, 373, 379, 383, 389, 397,
+      401, 409, 419, 421, 431, 433, 439, 443, 449, 457, 461, 463, 467, 479, 487, 491, 499));
                                                     // Correct set of prime numbers less than 500.
   @Before
   public void setUp(){
@@ -44,19 +64,457 @@ public class PrimeNumberCalculatorTest {
     this.fakeTimeStep = fakeTimeStep;
   }
 
+  /**
+   * @return an injector for calculators of [0, upperBound) with the
+   *         parameters of this test.
+   */
+  private Injector newInjector(int upperBound, SieveMode sieveMode, int segmentLength) {
+    return Guice.createInjector(new PrimeNumberCalculationModule(upperBound, numThreads,
+        minLengthForEachWorker, sieveMode, segmentLength));
+  }
+
+  private Injector newInjector(int upperBound) {
+    return Guice.createInjector(new PrimeNumberCalculationModule(upperBound, numThreads,
+        minLengthForEachWorker));
+  }
+
   /**
    * Test the Prime Number Calculation.
    * @throws InterruptedException 
    */
   @Test
   public void testPrimeNumberLessThan500() throws InterruptedException {  
-    injector = Guice.createInjector(new PrimeNumberCalculationModule(500, numThreads,
-        minLengthForEachWorker));
+    injector = newInjector(500);
     PrimeNumberCalculator theCalculator = injector.getInstance(PrimeNumberCalculator.class);
     List<Integer> result = theCalculator.run();
     assertEquals(correctPrimeLessThan500, result);
   }
 
+  /**
+   * Test the Prime Number Calculation in the "SEGMENTED" mode, with segments
+   * small enough that every worker thread handles several of them.
+   * @throws InterruptedException 
+   */
+  @Test
+  public void testSegmentedPrimeNumberLessThan500() throws InterruptedException {
+    injector = newInjector(500, SieveMode.SEGMENTED, 64);
+    PrimeNumberCalculator theCalculator = injector.getInstance(PrimeNumberCalculator.class);
+    List<Integer> result = theCalculator.run();
+    assertEquals(correctPrimeLessThan500, result);
+  }
+
+  /**
+   * Test the Prime Number Calculation in the "WHEEL" mode.
+   * @throws InterruptedException 
+   */
+  @Test
+  public void testWheelPrimeNumberLessThan500() throws InterruptedException {
+    injector = newInjector(500, SieveMode.WHEEL, 64);
+    PrimeNumberCalculator theCalculator = injector.getInstance(PrimeNumberCalculator.class);
+    List<Integer> result = theCalculator.run();
+    assertEquals(correctPrimeLessThan500, result);
+  }
+
+  /**
+   * Test "forEachPrime" and "primeStream", which should give the same prime
+   * numbers as "run" without building a list.
+   * @throws InterruptedException 
+   */
+  @Test
+  public void testStreamingPrimeNumberLessThan500() throws InterruptedException {
+    injector = newInjector(500, SieveMode.SEGMENTED, 64);
+    PrimeNumberCalculator theCalculator = injector.getInstance(PrimeNumberCalculator.class);
+    final List<Integer> result = new ArrayList<Integer>();
+    theCalculator.forEachPrime(new IntConsumer() {
+      @Override
+      public void accept(int prime) {
+        result.add(prime);
+      }
+    });
+    assertEquals(correctPrimeLessThan500, result);
+    assertEquals(correctPrimeLessThan500,
+        theCalculator.primeStream().boxed().collect(Collectors.toList()));
+  }
+
+  /**
+   * Test closing an iterator and a stream long before their runs are read to
+   * the end, which should stop the worker threads at once.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testAbandonedPrimeIterator() throws InterruptedException {
+    for (SieveMode sieveMode : new SieveMode[] { SieveMode.SEGMENTED, SieveMode.WHEEL,
+        SieveMode.OFF_HEAP_WHEEL }) {
+      injector = newInjector(1 << 28, sieveMode, 1 << 12);
+      PrimeNumberCalculator theCalculator = injector.getInstance(PrimeNumberCalculator.class);
+      ForkJoinPool pool = (ForkJoinPool) injector.getInstance(
+          Key.get(ExecutorService.class, Names.named("executorService")));
+      PrimeIterator iterator = theCalculator.primeIterator();
+      assertEquals(2, iterator.nextInt());
+      iterator.close();
+      assertTrue(pool.awaitQuiescence(1, TimeUnit.SECONDS));
+      try {
+        iterator.hasNext();
+        assertTrue(false);
+      } catch (CancellationException e) {
+        // Expected.
+      }
+      iterator.close();
+
+      try (IntStream primes = theCalculator.primeStream()) {
+        assertEquals(58, primes.limit(7).sum());
+      }
+      assertTrue(pool.awaitQuiescence(1, TimeUnit.SECONDS));
+    }
+  }
+
+  /**
+   * Test "primesInRange" on a window whose bounds are not aligned to the
+   * words of the flags.
+   * @throws InterruptedException 
+   */
+  @Test
+  public void testPrimeNumberInRange() throws InterruptedException {
+    List<Long> correctPrimeInRange = new ArrayList<Long>();
+    for (int prime : correctPrimeLessThan500) {
+      if (prime >= 101 && prime < 450) {
+        correctPrimeInRange.add((long) prime);
+      }
+    }
+    for (SieveMode sieveMode : SieveMode.values()) {
+      injector = newInjector(500, sieveMode, 64);
+      PrimeNumberCalculator theCalculator = injector.getInstance(PrimeNumberCalculator.class);
+      long[] result = theCalculator.primesInRange(101, 450);
+      assertEquals(correctPrimeInRange, LongStream.of(result).boxed().collect(Collectors.toList()));
+    }
+  }
+
+  /**
+   * Test "runAsync" with a progress listener in every mode, and the
+   * cancellation of a run far too long to finish.
+   * @throws Exception
+   */
+  @Test
+  public void testRunAsync() throws Exception {
+    for (SieveMode sieveMode : SieveMode.values()) {
+      injector = newInjector(500, sieveMode, 64);
+      PrimeNumberCalculator theCalculator = injector.getInstance(PrimeNumberCalculator.class);
+      final List<Long> progress = new ArrayList<Long>();
+      List<Integer> result = theCalculator.runAsync(new SieveProgressListener() {
+        @Override
+        public void onProgress(int completedSegments, int numSegments, long sievedUpTo,
+            long primeCount) {
+          assertEquals(progress.size() / 2 + 1, completedSegments);
+          progress.add(sievedUpTo);
+          progress.add(primeCount);
+        }
+      }).get();
+      assertEquals(correctPrimeLessThan500, result);
+      assertEquals(500L, (long) progress.get(progress.size() - 2));
+      assertEquals(95L, (long) progress.get(progress.size() - 1));
+
+      injector = newInjector(1 << 28, sieveMode, 1 << 12);
+      CompletableFuture<List<Integer>> future =
+          injector.getInstance(PrimeNumberCalculator.class).runAsync();
+      assertTrue(future.cancel(true));
+      try {
+        future.join();
+        assertTrue(false);
+      } catch (CancellationException e) {
+        // Expected.
+      }
+      assertEquals(correctPrimeLessThan500, theCalculator.runAsync().get());
+    }
+  }
+
+  /**
+   * Test more calls to "runAsync" at once than there are threads in the
+   * executor, made from the threads of the executor so that each run is
+   * queued on the thread starting it. They should all finish since nothing
+   * blocks a thread waiting for the workers.
+   * @throws Exception
+   */
+  @Test
+  public void testConcurrentRunAsync() throws Exception {
+    for (SieveMode sieveMode : SieveMode.values()) {
+      injector = newInjector(1 << 16, sieveMode, 1 << 10);
+      final PrimeNumberCalculator theCalculator =
+          injector.getInstance(PrimeNumberCalculator.class);
+      ExecutorService executor = injector.getInstance(
+          Key.get(ExecutorService.class, Names.named("executorService")));
+      List<CompletableFuture<List<Integer>>> futures =
+          new ArrayList<CompletableFuture<List<Integer>>>();
+      for (int i = 0; i < 2 * numThreads + 1; ++i) {
+        futures.add(CompletableFuture.supplyAsync(theCalculator::runAsync, executor)
+            .thenCompose(future -> future));
+      }
+      for (CompletableFuture<List<Integer>> future : futures) {
+        assertEquals(6542, future.get(30, TimeUnit.SECONDS).size());
+      }
+    }
+  }
+
+  /**
+   * Test concurrent calls to "runAsync", made from the threads of a fixed
+   * pool of two threads given by "newExecutorService", which has no work
+   * stealing to fall back on. No mode may hold a thread of the pool while
+   * waiting for other tasks.
+   * @throws Exception
+   */
+  @Test
+  public void testRunAsyncOnFixedPool() throws Exception {
+    for (SieveMode sieveMode : SieveMode.values()) {
+      final ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+        injector = Guice.createInjector(new PrimeNumberCalculationModule(1 << 16, numThreads,
+            minLengthForEachWorker, sieveMode, 1 << 10) {
+          @Override
+          protected ExecutorService newExecutorService() {
+            return executor;
+          }
+        });
+        final PrimeNumberCalculator theCalculator =
+            injector.getInstance(PrimeNumberCalculator.class);
+        List<CompletableFuture<List<Integer>>> futures =
+            new ArrayList<CompletableFuture<List<Integer>>>();
+        for (int i = 0; i < 3; ++i) {
+          futures.add(CompletableFuture.supplyAsync(theCalculator::runAsync, executor)
+              .thenCompose(future -> future));
+        }
+        for (CompletableFuture<List<Integer>> future : futures) {
+          assertEquals(6542, future.get(30, TimeUnit.SECONDS).size());
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Test the adaptive mode in every sieve mode, and the search of the best
+   * segment length by "SieveTuner" on made-up throughputs peaking at 2^18.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testAdaptiveTuning() throws InterruptedException {
+    for (SieveMode sieveMode : SieveMode.values()) {
+      injector = Guice.createInjector(new PrimeNumberCalculationModule(1 << 20, sieveMode));
+      PrimeNumberCalculator theCalculator = injector.getInstance(PrimeNumberCalculator.class);
+      assertEquals(Runtime.getRuntime().availableProcessors(), theCalculator.getNumThreads());
+      for (int i = 0; i < 3; ++i) {
+        assertTrue(theCalculator.getSegmentLength() >= SieveTuner.MIN_SEGMENT_LENGTH);
+        assertEquals(82025, theCalculator.primeStream().count());
+      }
+      if (sieveMode == SieveMode.PER_PRIME) {
+        assertTrue(theCalculator.getMinLengthForEachWorker() > 1);
+      }
+    }
+
+    assertEquals(2 << 20, SieveTuner.parseCacheSize("2048K"));
+    SieveTuner tuner = new SieveTuner(1, 1, 64, SieveMode.SEGMENTED, true);
+    for (int i = 0; i < 20; ++i) {
+      int length = tuner.getSegmentLength();
+      long distance = Math.abs(Integer.numberOfTrailingZeros(length) - 18);
+      tuner.recordSegments(length, 100, 1000000000L, 1000000000L * (1 + distance));
+    }
+    assertEquals(1 << 18, tuner.getSegmentLength());
+  }
+
+  /**
+   * Test "OffHeapPrimeNumberFlags" split into chunks of 4 words, and the
+   * release of the flags by the calculator.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testOffHeapPrimeNumberLessThan500() throws InterruptedException {
+    OffHeapPrimeNumberFlags flags = new OffHeapPrimeNumberFlags(0, 5000, 2);
+    for (int prime = 7; prime * prime < 5000; prime = (int) flags.nextPrime(prime + 1)) {
+      flags.markMultiplesOf(prime, 0, 5000);
+    }
+    List<Integer> result = new ArrayList<Integer>();
+    for (long i = flags.nextPrime(0); i < 500; i = flags.nextPrime(i + 1)) {
+      result.add((int) i);
+    }
+    assertEquals(correctPrimeLessThan500, result);
+    assertEquals(669, LongStream.iterate(flags.nextPrime(0), i -> i < 5000,
+        i -> flags.nextPrime(i + 1)).count());
+    flags.close();
+    flags.close();
+
+    injector = newInjector(500, SieveMode.OFF_HEAP_WHEEL, 64);
+    PrimeNumberCalculator theCalculator = injector.getInstance(PrimeNumberCalculator.class);
+    assertEquals(correctPrimeLessThan500, theCalculator.run());
+    assertEquals(2, theCalculator.primeIterator().nextInt());
+    theCalculator.close();
+    assertEquals(correctPrimeLessThan500, theCalculator.run());
+  }
+
+  /**
+   * Test closing the calculator while a run is read, and a consumer failing
+   * in the middle of a run, which should both stop the worker threads before
+   * the flags are released.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testCloseDuringRun() throws InterruptedException {
+    injector = newInjector(1 << 28, SieveMode.OFF_HEAP_WHEEL, 1 << 12);
+    PrimeNumberCalculator theCalculator = injector.getInstance(PrimeNumberCalculator.class);
+    ForkJoinPool pool = (ForkJoinPool) injector.getInstance(
+        Key.get(ExecutorService.class, Names.named("executorService")));
+    PrimeIterator iterator = theCalculator.primeIterator();
+    assertEquals(2, iterator.nextInt());
+    theCalculator.close();
+    assertTrue(pool.awaitQuiescence(1, TimeUnit.SECONDS));
+    try {
+      iterator.nextInt();
+      assertTrue(false);
+    } catch (CancellationException e) {
+      // Expected.
+    }
+
+    try {
+      theCalculator.forEachPrime(new IntConsumer() {
+        @Override
+        public void accept(int prime) {
+          if (prime > 100) {
+            throw new IllegalStateException("Enough");
+          }
+        }
+      });
+      assertTrue(false);
+    } catch (IllegalStateException e) {
+      assertEquals("Enough", e.getMessage());
+    }
+    assertTrue(pool.awaitQuiescence(1, TimeUnit.SECONDS));
+    theCalculator.close();
+  }
+
+  /**
+   * Test the queries of "PrimeCache" within its first bound.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testPrimeCache() throws InterruptedException {
+    injector = newInjector(500, SieveMode.WHEEL, 64);
+    PrimeCache cache = injector.getInstance(PrimeCache.class);
+    assertSame(cache, injector.getInstance(PrimeCache.class));
+    int count = 0;
+    for (int i = 0; i < 500; ++i) {
+      boolean isPrime = correctPrimeLessThan500.contains(i);
+      if (isPrime) {
+        ++count;
+        assertEquals(i, cache.nthPrime(count));
+      }
+      assertEquals(isPrime, cache.isPrime(i));
+      assertEquals(count, cache.primeCount(i));
+    }
+  }
+
+  /**
+   * Test "PrimeBitmapLoader", which should compute and write the file the
+   * first time, read it afterwards, and compute it again once it's corrupted.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testPrimeBitmap() throws IOException, InterruptedException {
+    Path directory = Files.createTempDirectory("primeBitmap");
+    Path path = directory.resolve("primes.bin");
+    try {
+      for (SieveMode sieveMode : SieveMode.values()) {
+        injector = newInjector(500, sieveMode, 64);
+        PrimeBitmapLoader loader = injector.getInstance(PrimeBitmapLoader.class);
+        Files.deleteIfExists(path);
+        assertPrimeBitmapLessThan500(loader.load(path));
+        byte[] written = Files.readAllBytes(path);
+        assertPrimeBitmapLessThan500(loader.load(path));
+        assertTrue(Arrays.equals(written, Files.readAllBytes(path)));
+
+        byte[] corrupted = written.clone();
+        corrupted[corrupted.length - 1] ^= 1;
+        Files.write(path, corrupted);
+        assertPrimeBitmapLessThan500(loader.load(path));
+        assertTrue(Arrays.equals(written, Files.readAllBytes(path)));
+      }
+    } finally {
+      Files.deleteIfExists(path);
+      Files.delete(directory);
+    }
+  }
+
+  private void assertPrimeBitmapLessThan500(PrimeBitmap bitmap) {
+    final List<Integer> result = new ArrayList<Integer>();
+    bitmap.forEachPrime(new LongConsumer() {
+      @Override
+      public void accept(long prime) {
+        result.add((int) prime);
+      }
+    });
+    assertEquals(correctPrimeLessThan500, result);
+    for (int i = 0; i < 500; ++i) {
+      assertEquals(correctPrimeLessThan500.contains(i), bitmap.isPrime(i));
+    }
+  }
+
+  /**
+   * Test "PrimeFactorizer" on every number below 500, whose prime factors
+   * should multiply back to the number and be prime numbers in increasing
+   * order.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testFactorize() throws InterruptedException {
+    injector = newInjector(500);
+    PrimeFactorizer factorizer = injector.getInstance(PrimeFactorizer.class);
+    int[] inputs = new int[499];
+    for (int i = 0; i < inputs.length; ++i) {
+      inputs[i] = inputs.length - i;
+    }
+    Factorizations result = factorizer.factorize(inputs);
+    assertEquals(inputs.length, result.size());
+    for (int i = 0; i < inputs.length; ++i) {
+      int product = 1;
+      int previous = 2;
+      for (int factor : result.factorsOf(i)) {
+        assertTrue(correctPrimeLessThan500.contains(factor));
+        assertTrue(factor >= previous);
+        product *= factor;
+        previous = factor;
+      }
+        assertEquals(inputs[i], product);
+    }
+  }
+
+  /**
+   * Test many concurrent runs of the same calculator, which share the
+   * executor bound in the module.
+   * @throws Exception
+   */
+  @Test
+  public void testConcurrentRuns() throws Exception {
+    for (SieveMode sieveMode : SieveMode.values()) {
+      injector = newInjector(500, sieveMode, 64);
+      final PrimeNumberCalculator theCalculator =
+          injector.getInstance(PrimeNumberCalculator.class);
+      ExecutorService requestThreads = Executors.newFixedThreadPool(8);
+      try {
+        List<Future<List<Integer>>> results = new ArrayList<Future<List<Integer>>>();
+        for (int i = 0; i < 32; ++i) {
+          results.add(requestThreads.submit(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() throws InterruptedException {
+              return theCalculator.run();
+            }
+          }));
+        }
+        for (Future<List<Integer>> result : results) {
+          assertEquals(correctPrimeLessThan500, result.get());
+        }
+      } finally {
+        requestThreads.shutdown();
+      }
+    }
+  }
+
   /**
    * Test "getElapsedTime"
    * @throws InterruptedException 
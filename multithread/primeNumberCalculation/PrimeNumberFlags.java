@@ -0,0 +1,171 @@
+package primeNumberCalculation;
+
+import java.util.Arrays;
+
+/**
+ * Flags indicating whether a number is prime or not, packed as one bit per
+ * number into "long" words. A set bit means the number is known to be
+ * non-prime. The methods taking an "index" work on the position of a number
+ * relative to "lowerBound".
+ */
+public class PrimeNumberFlags implements SieveFlags {
+  static final int BITS_PER_WORD = 64;
+  private static final int ADDRESS_BITS_PER_WORD = 6;
+
+  private final long[] words;
+  private final long lowerBound;
+  private final int size;
+
+  /**
+   * @param size
+   *          the number of flags, covering the numbers in [0, size).
+   */
+  public PrimeNumberFlags(int size) {
+    this(0L, size);
+  }
+
+  /**
+   * @param lowerBound
+   *          the first number covered by the flags.
+   * @param size
+   *          the number of flags, covering the numbers in [lowerBound,
+   *          lowerBound + size).
+   */
+  public PrimeNumberFlags(long lowerBound, int size) {
+    if (size < 0 || lowerBound < 0) {
+      throw new IllegalArgumentException("The flags should cover non-negative numbers");
+    }
+    this.lowerBound = lowerBound;
+    this.size = size;
+    this.words = new long[(int) (((long) size + BITS_PER_WORD - 1) >>> ADDRESS_BITS_PER_WORD)];
+  }
+
+  @Override
+  public long lowerBound() {
+    return lowerBound;
+  }
+
+  @Override
+  public long upperBound() {
+    return lowerBound + size;
+  }
+
+  @Override
+  public int wordSpan() {
+    return BITS_PER_WORD;
+  }
+
+  /**
+   * @return true if the number at "index" has been marked as non-prime.
+   */
+  public boolean get(int index) {
+    return (words[index >>> ADDRESS_BITS_PER_WORD] & (1L << index)) != 0;
+  }
+
+  /**
+   * Mark the number at "index" as non-prime.
+   */
+  public void set(int index) {
+    words[index >>> ADDRESS_BITS_PER_WORD] |= 1L << index;
+  }
+
+  @Override
+  public int numWords() {
+    return words.length;
+  }
+
+  @Override
+  public long word(int index) {
+    return words[index];
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(words, 0L);
+  }
+
+  /**
+   * Mark the numbers at "fromIndex", "fromIndex + step", "fromIndex + 2 *
+   * step", ... below "toIndex" as non-prime, working directly on the backing
+   * words.
+   *
+   * @param fromIndex
+   *          the index of the first number (included) to be marked.
+   * @param toIndex
+   *          the upper bound (excluded) of the indexes to be marked.
+   * @param step
+   *          the distance between two marked numbers.
+   */
+  public void markMultiples(int fromIndex, int toIndex, int step) {
+    final long[] words = this.words;
+    for (long index = fromIndex; index < toIndex; index += step) {
+      words[(int) (index >>> ADDRESS_BITS_PER_WORD)] |= 1L << index;
+    }
+  }
+
+  @Override
+  public void markMultiplesOf(int prime, long from, long to) {
+    from = Math.max(from, lowerBound);
+    to = Math.min(to, upperBound());
+    long firstMultiple = Math.max((long) prime * prime, (from + prime - 1) / prime * prime);
+    if (firstMultiple < to) {
+      markMultiples((int) (firstMultiple - lowerBound), (int) (to - lowerBound), prime);
+    }
+  }
+
+  /**
+   * Copy the pattern of the multiples of the primes up to 13.
+   */
+  @Override
+  public int presieve(long from, long to) {
+    PresievePattern pattern = PresievePattern.plain(lowerBound);
+    from = Math.max(from, lowerBound);
+    to = Math.min(to, upperBound());
+    if (from < to) {
+      int fromWord = (int) ((from - lowerBound) >>> ADDRESS_BITS_PER_WORD);
+      int toWord = (int) ((to - lowerBound + BITS_PER_WORD - 1) >>> ADDRESS_BITS_PER_WORD);
+      pattern.stamp(words, fromWord, toWord,
+          pattern.wordAt(lowerBound + ((long) fromWord << ADDRESS_BITS_PER_WORD)));
+      for (int prime : pattern.primes()) {
+        if (prime >= from && prime < to) {
+          int index = (int) (prime - lowerBound);
+          words[index >>> ADDRESS_BITS_PER_WORD] &= ~(1L << index);
+        }
+      }
+    }
+    return pattern.limit();
+  }
+
+  @Override
+  public long nextPrime(long fromNumber) {
+    fromNumber = Math.max(fromNumber, Math.max(lowerBound, 2));
+    if (fromNumber >= upperBound()) {
+      return upperBound();
+    }
+    return lowerBound + nextClearBit((int) (fromNumber - lowerBound));
+  }
+
+  /**
+   * Find the smallest index no less than "fromIndex" whose number is not
+   * marked.
+   *
+   * @return the index found, or "size" if there is no such index.
+   */
+  public int nextClearBit(int fromIndex) {
+    if (fromIndex >= size) {
+      return size;
+    }
+    int wordIndex = fromIndex >>> ADDRESS_BITS_PER_WORD;
+    long word = ~words[wordIndex] & (-1L << fromIndex);
+    while (true) {
+      if (word != 0) {
+        int result = wordIndex * BITS_PER_WORD + Long.numberOfTrailingZeros(word);
+        return Math.min(result, size);
+      }
+      if (++wordIndex == words.length) {
+        return size;
+      }
+      word = ~words[wordIndex];
+    }
+  }
+}
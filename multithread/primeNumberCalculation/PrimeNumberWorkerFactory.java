@@ -2,8 +2,6 @@ package primeNumberCalculation;
 
 import com.google.inject.assistedinject.Assisted;
 
-import java.util.List;
-
 /**
  * Interface used in Assist Inject for the factory providing 
  * "PrimeNumberCalculator.WorkerThread"
@@ -18,6 +16,6 @@ public interface PrimeNumberWorkerFactory {
       @Assisted("workerUpperBound") Integer workerUpperBound,
       @Assisted("target") Integer target,
       @Assisted("index") Integer index,
-      @Assisted List<Boolean>  primeNumberFlags
+      @Assisted SieveFlags primeNumberFlags
       );
 }
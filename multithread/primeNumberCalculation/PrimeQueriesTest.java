@@ -0,0 +1,140 @@
+package primeNumberCalculation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static primeNumberCalculation.PrimeNumberCalculatorTest.correctPrimeLessThan500;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The tests which don't depend on the thread settings, run once instead of
+ * once per parameter of "PrimeNumberCalculatorTest".
+ */
+public class PrimeQueriesTest {
+  private static final int NUM_THREADS = 4;
+  private Injector injector;
+
+  @Before
+  public void setUp() {
+    injector = Guice.createInjector(new PrimeNumberCalculationModule(500, NUM_THREADS, 1));
+  }
+
+  /**
+   * Test "presieve" on every kind of flags, from lower bounds that are not
+   * aligned to the pattern, against marking the multiples one at a time.
+   */
+  @Test
+  public void testPresieve() {
+    int size = 100000;
+    for (long lowerBound : new long[] { 0, 1, 30, 999, 1234560, 99999990 }) {
+      SieveFlags[] presieved = { new PrimeNumberFlags(lowerBound, size),
+          new WheelPrimeNumberFlags(lowerBound, size),
+          new OffHeapPrimeNumberFlags(lowerBound, size, 3) };
+      SieveFlags[] marked = { new PrimeNumberFlags(lowerBound, size),
+          new WheelPrimeNumberFlags(lowerBound, size),
+          new OffHeapPrimeNumberFlags(lowerBound, size, 3) };
+      for (int i = 0; i < presieved.length; ++i) {
+        long from = presieved[i].lowerBound();
+        long to = from + presieved[i].wordSpan() * 3L;
+        int limit = Math.max(presieved[i].presieve(from, to),
+            presieved[i].presieve(to, lowerBound + size));
+        assertTrue(limit >= 13);
+        for (int prime : correctPrimeLessThan500) {
+          if (prime <= limit) {
+            marked[i].markMultiplesOf(prime, lowerBound, lowerBound + size);
+          }
+        }
+        for (long n = lowerBound; n < lowerBound + size; ++n) {
+          assertEquals(marked[i].nextPrime(n), presieved[i].nextPrime(n));
+        }
+        presieved[i].close();
+        marked[i].close();
+      }
+    }
+  }
+
+  /**
+   * Test "PrimeCounter" against the number of prime numbers found by the
+   * sieve, on bounds large enough for the worker threads to be used.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testPrimeCounter() throws InterruptedException {
+    PrimeCounter counter = injector.getInstance(PrimeCounter.class);
+    for (int i = 0; i < 500; ++i) {
+      int count = 0;
+      while (count < correctPrimeLessThan500.size() && correctPrimeLessThan500.get(count) <= i) {
+        ++count;
+      }
+      assertEquals(count, counter.primeCount(i));
+    }
+    for (int upperBound : new int[] { 1000000, 1234567 }) {
+      PrimeNumberCalculator theCalculator = Guice.createInjector(
+          new PrimeNumberCalculationModule(upperBound + 1, NUM_THREADS, SieveMode.WHEEL))
+          .getInstance(PrimeNumberCalculator.class);
+      assertEquals(theCalculator.run().size(), counter.primeCount(upperBound));
+    }
+    assertEquals(455052511L, counter.primeCount(10000000000L));
+  }
+
+  /**
+   * Test "PrimalityChecker" on the numbers below 500, on strong pseudoprimes
+   * to several bases, and on numbers close to 2^63.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testPrimalityChecker() throws InterruptedException {
+    PrimalityChecker checker = injector.getInstance(PrimalityChecker.class);
+    long[] candidates = new long[500];
+    for (int i = 0; i < candidates.length; ++i) {
+      candidates[i] = i;
+    }
+    boolean[] result = checker.isPrime(candidates);
+    for (int i = 0; i < candidates.length; ++i) {
+      assertEquals(correctPrimeLessThan500.contains(i), result[i]);
+    }
+    long[] composites = { 3215031751L, 2152302898747L, 3474749660383L, 341550071728321L,
+        3825123056546413051L, 4611686014132420609L, Long.MAX_VALUE };
+    long[] primes = { 65537L, 4294967291L, 2305843009213693951L, 9223372036854775783L };
+    for (long composite : composites) {
+      assertFalse(checker.isPrime(composite));
+    }
+    for (long prime : primes) {
+      assertTrue(checker.isPrime(prime));
+    }
+  }
+
+
+  /**
+   * Test the queries of "PrimeCache" making it grow past its first bound.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testPrimeCacheGrowth() throws InterruptedException {
+    PrimeCache cache = Guice.createInjector(new PrimeNumberCalculationModule(500, NUM_THREADS,
+        1, SieveMode.WHEEL, 64)).getInstance(PrimeCache.class);
+    assertEquals(104729, cache.nthPrime(10000));
+    assertEquals(78498, cache.primeCount(1000000));
+    assertTrue(cache.isPrime(1000003));
+    assertFalse(cache.isPrime(1000001));
+    assertTrue(cache.getBound() > 1000003);
+  }
+
+  /**
+   * Test the queries of "Factorizations" on a few known factorizations.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testFactorizations() throws InterruptedException {
+    Factorizations result = injector.getInstance(PrimeFactorizer.class)
+        .factorize(new int[] { 1, 384, 495 });
+    assertEquals(0, result.count(0)); // 1
+    assertEquals(8, result.count(1)); // 384 = 2^7 * 3
+    assertEquals(3, result.factor(2, 1)); // 495 = 3^2 * 5 * 11
+  }
+}
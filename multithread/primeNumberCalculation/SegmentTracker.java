@@ -0,0 +1,237 @@
+package primeNumberCalculation;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Splits [lowerBound, upperBound) into segments of "segmentLength" numbers,
+ * hands them out to the worker threads one at a time, and lets other threads
+ * wait until a given segment has been sieved. It also counts the worker
+ * threads inside the flags of the run, so that the flags are only released
+ * once all of them are out.
+ */
+public class SegmentTracker {
+  private final long lowerBound;
+  private final long upperBound;
+  private final int segmentLength;
+  private final int numSegments;
+  private final AtomicInteger nextSegment;
+  private final CountDownLatch[] segmentDone;
+  private volatile Throwable failure;
+  private volatile boolean cancelled = false;
+  private int activeWorkers = 0;
+  private volatile Runnable onChange;
+  private final LongAdder sieveTime = new LongAdder();
+
+  /**
+   * @param lowerBound
+   *          the lower bound (included) of the numbers to be sieved.
+   * @param upperBound
+   *          the upper bound (excluded) of the numbers to be sieved.
+   * @param segmentLength
+   *          the number of numbers in each segment.
+   */
+  public SegmentTracker(long lowerBound, long upperBound, int segmentLength) {
+    this.lowerBound = lowerBound;
+    this.upperBound = upperBound;
+    this.segmentLength = segmentLength;
+    this.numSegments = (int) ((Math.max(upperBound - lowerBound, 0) + segmentLength - 1)
+        / segmentLength);
+    this.nextSegment = new AtomicInteger(0);
+    this.segmentDone = new CountDownLatch[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      segmentDone[i] = new CountDownLatch(1);
+    }
+  }
+
+  public int getNumSegments() {
+    return numSegments;
+  }
+
+  /**
+   * Set the callback run, on the thread making the change, each time a
+   * segment is done, the run is cancelled or fails, or the last worker thread
+   * leaves the flags. It may run on several threads at once, and should be set
+   * before the worker threads start.
+   */
+  public void setOnChange(Runnable onChange) {
+    this.onChange = onChange;
+  }
+
+  private void changed() {
+    Runnable callback = onChange;
+    if (callback != null) {
+      callback.run();
+    }
+  }
+
+  /**
+   * @return the lower bound (included) of the numbers in "segment".
+   */
+  public long segmentLowerBound(int segment) {
+    return lowerBound + (long) segment * segmentLength;
+  }
+
+  /**
+   * @return the upper bound (excluded) of the numbers in "segment".
+   */
+  public long segmentUpperBound(int segment) {
+    return Math.min(upperBound, lowerBound + (long) (segment + 1) * segmentLength);
+  }
+
+  /**
+   * @return the index of a segment no worker thread has taken yet, or -1 if
+   *         all the segments have been taken.
+   */
+  public int takeSegment() {
+    int segment = nextSegment.getAndIncrement();
+    return segment < numSegments ? segment : -1;
+  }
+
+  /**
+   * Called by a worker thread before it touches the flags of the run. Every
+   * successful call must be followed by one call to "exitWorker".
+   *
+   * @return false if the run is cancelled or failed, in which case the
+   *         worker thread should leave the flags alone.
+   */
+  public synchronized boolean enterWorker() {
+    if (cancelled || failure != null) {
+      return false;
+    }
+    ++activeWorkers;
+    return true;
+  }
+
+  /**
+   * Called by a worker thread once it is done with the flags of the run.
+   */
+  public void exitWorker() {
+    synchronized (this) {
+      if (--activeWorkers > 0) {
+        return;
+      }
+      notifyAll();
+    }
+    changed();
+  }
+
+  /**
+   * @return true if no worker thread is in the flags right now.
+   */
+  public synchronized boolean isIdle() {
+    return activeWorkers == 0;
+  }
+
+  /**
+   * Add the time, in nanoseconds, a worker thread spent sieving a segment.
+   * It should be called before "markDone" for that segment.
+   */
+  public void addSieveTime(long nanos) {
+    sieveTime.add(nanos);
+  }
+
+  /**
+   * @return the time spent by all the worker threads on the segments marked
+   *         done so far, in nanoseconds.
+   */
+  public long getSieveTime() {
+    return sieveTime.sum();
+  }
+
+  /**
+   * Let the threads waiting for "segment" know that it has been sieved.
+   */
+  public void markDone(int segment) {
+    segmentDone[segment].countDown();
+    changed();
+  }
+
+  /**
+   * Used when the whole range has been sieved without going through the
+   * segments.
+   */
+  public void markAllDone() {
+    for (CountDownLatch latch : segmentDone) {
+      latch.countDown();
+    }
+    changed();
+  }
+
+  /**
+   * Wake up every waiting thread when a worker thread fails, so that nobody
+   * waits for a segment that will never be done.
+   */
+  public void markFailed(Throwable cause) {
+    synchronized (this) {
+      failure = cause;
+    }
+    nextSegment.set(numSegments);
+    markAllDone();
+  }
+
+  /**
+   * Stop handing out segments. The segments being sieved are finished by their
+   * worker threads, the other ones are given up and their waiting threads are
+   * woken up.
+   */
+  public void cancel() {
+    synchronized (this) {
+      cancelled = true;
+    }
+    int firstUntaken = nextSegment.getAndSet(numSegments);
+    for (int i = firstUntaken; i < numSegments; ++i) {
+      segmentDone[i].countDown();
+    }
+    changed();
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return true if "segment" has been sieved or given up, so that
+   *         "awaitDone" returns or throws at once.
+   */
+  public boolean isDone(int segment) {
+    return segmentDone[segment].getCount() == 0;
+  }
+
+  /**
+   * Wait until "segment" has been sieved.
+   *
+   * @throws IllegalStateException
+   *           if a worker thread failed before the segment was done.
+   * @throws CancellationException
+   *           if the sieve was cancelled.
+   */
+  public void awaitDone(int segment) throws InterruptedException {
+    segmentDone[segment].await();
+    if (failure != null) {
+      throw new IllegalStateException("A worker thread failed while sieving", failure);
+    }
+    if (cancelled) {
+      throw new CancellationException("The sieve was cancelled");
+    }
+  }
+
+  /**
+   * Wait until every segment is done or given up and no worker thread is in
+   * the flags anymore, e.g. before releasing the flags of a cancelled sieve.
+   * Once the run is cancelled or failed, no worker thread can enter the flags
+   * again after this returns.
+   */
+  public void awaitAll() throws InterruptedException {
+    for (CountDownLatch latch : segmentDone) {
+      latch.await();
+    }
+    synchronized (this) {
+      while (activeWorkers > 0) {
+        wait();
+      }
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package primeNumberCalculation;
+
+import com.google.inject.assistedinject.Assisted;
+
+/**
+ * Interface used in Assist Inject for the factory providing
+ * "PrimeNumberCalculator.SegmentWorker"
+ *
+ */
+public interface SegmentWorkerFactory {
+  public PrimeNumberCalculator.SegmentWorker create(
+      @Assisted("index") Integer index,
+      @Assisted SegmentTracker segmentTracker,
+      @Assisted int[] basePrimes,
+      @Assisted SieveFlags primeNumberFlags
+      );
+}
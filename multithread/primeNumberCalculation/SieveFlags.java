@@ -0,0 +1,79 @@
+package primeNumberCalculation;
+
+/**
+ * Flags indicating whether a number in [lowerBound, upperBound) is prime or
+ * not. How the numbers are mapped to the stored bits is up to the
+ * implementation; the sieve only talks to it in terms of numbers.
+ *
+ * The flags are packed into words, and two threads must never write the same
+ * word at the same time. Callers that mark in parallel should split their
+ * work at "lowerBound" plus multiples of "wordSpan".
+ */
+public interface SieveFlags extends AutoCloseable {
+  /**
+   * @return the lower bound (included) of the numbers covered by the flags.
+   */
+  public long lowerBound();
+
+  /**
+   * @return the upper bound (excluded) of the numbers covered by the flags.
+   */
+  public long upperBound();
+
+  /**
+   * @return the number of consecutive numbers whose flags share one word.
+   */
+  public int wordSpan();
+
+  /**
+   * Reset every flag, so that all the numbers are considered prime again.
+   */
+  public void clear();
+
+  /**
+   * Mark the multiples of "prime" in [from, to) as non-prime, starting no
+   * lower than the square of "prime". Multiples that are not stored by the
+   * implementation are skipped.
+   */
+  public void markMultiplesOf(int prime, long from, long to);
+
+  /**
+   * Mark the multiples of the smallest primes in [from, to) at once, leaving
+   * the primes themselves un-marked. "from" should be "lowerBound" plus a
+   * multiple of "wordSpan", and so should "to" unless it's "upperBound". The
+   * words in between are overwritten, so this should be done before marking
+   * anything else there.
+   *
+   * @return the largest prime whose multiples are now marked; the multiples of
+   *         the larger primes still have to be marked by "markMultiplesOf".
+   */
+  public default int presieve(long from, long to) {
+    return 1;
+  }
+
+  /**
+   * Find the smallest un-marked prime candidate no less than "fromNumber" and
+   * no less than 2.
+   *
+   * @return the number found, or "upperBound" if there is no such number.
+   */
+  public long nextPrime(long fromNumber);
+
+  /**
+   * @return the number of words backing the flags.
+   */
+  public int numWords();
+
+  /**
+   * @return the word at "index", in which a set bit marks a non-prime number.
+   */
+  public long word(int index);
+
+  /**
+   * Release the memory held outside of the Java heap, if any. The flags must
+   * not be used afterwards.
+   */
+  @Override
+  public default void close() {
+  }
+}
@@ -0,0 +1,34 @@
+package primeNumberCalculation;
+
+/**
+ * The ways "PrimeNumberCalculator" can mark the non-prime numbers.
+ */
+public enum SieveMode {
+  /**
+   * For each prime number in turn, split the interval from its square to the
+   * upper bound among the worker threads, and wait for all of them before
+   * going to the next prime number.
+   */
+  PER_PRIME,
+
+  /**
+   * Split the numbers into cache-sized segments. Each worker thread takes one
+   * segment at a time and marks the multiples of all the base primes in it
+   * before moving on, and we only wait for the worker threads once.
+   */
+  SEGMENTED,
+
+  /**
+   * Same as "SEGMENTED", but only the numbers coprime to 2 * 3 * 5 are stored
+   * and visited, which takes 3.75 times less memory and marks 3.75 times fewer
+   * multiples.
+   */
+  WHEEL,
+
+  /**
+   * Same as "WHEEL", but the flags are stored outside of the Java heap and
+   * released as soon as a run is done, and the range queries are not limited
+   * to windows of Integer.MAX_VALUE numbers.
+   */
+  OFF_HEAP_WHEEL
+}
@@ -0,0 +1,20 @@
+package primeNumberCalculation;
+
+/**
+ * Callback told by "PrimeNumberCalculator.runAsync" how far the sieve has
+ * gone, once for each segment in increasing order.
+ */
+public interface SieveProgressListener {
+  /**
+   * @param completedSegments
+   *          the segments [0, completedSegments) are sieved and read.
+   * @param numSegments
+   *          the number of segments of the run.
+   * @param sievedUpTo
+   *          the upper bound (excluded) of the numbers sieved so far.
+   * @param primeCount
+   *          the number of prime numbers less than "sievedUpTo".
+   */
+  public void onProgress(int completedSegments, int numSegments, long sievedUpTo,
+      long primeCount);
+}
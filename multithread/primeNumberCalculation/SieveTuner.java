@@ -0,0 +1,229 @@
+package primeNumberCalculation;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Chooses the task granularity of a "PrimeNumberCalculator". Unless
+ * "adaptive" is set, it keeps the configured values.
+ *
+ * In the adaptive mode, the first segment length makes the flags of a
+ * segment take half of the L2 cache, as detected from
+ * "/sys/devices/system/cpu" (or "DEFAULT_L2_CACHE_SIZE"). After each run it
+ * is refined by doubling or halving it for as long as the measured throughput
+ * of the worker threads improves, then it stays at the best length found. In
+ * the "PER_PRIME" mode, "minLengthForEachWorker" is refined after each base
+ * prime so that a task takes about "TARGET_TASK_NANOS".
+ */
+public class SieveTuner {
+  static final int DEFAULT_L2_CACHE_SIZE = 256 * 1024;
+  static final int MIN_SEGMENT_LENGTH = 1 << 12;
+  static final int MAX_SEGMENT_LENGTH = 1 << 26;
+  /**
+   * Leave some segments per worker thread so that none of them stays idle.
+   * Runs with fewer segments are too short to be measured.
+   */
+  static final int MIN_SEGMENTS_PER_THREAD = 8;
+  static final long TARGET_TASK_NANOS = 50000;
+
+  private static final Path CACHE_DIRECTORY = Paths.get("/sys/devices/system/cpu/cpu0/cache");
+
+  private final boolean adaptive;
+  private final int numThreads;
+  private volatile int segmentLength;
+  private volatile int minLengthForEachWorker;
+
+  // The state of the search of the best segment length, guarded by "this".
+  private int bestSegmentLength;
+  private double bestThroughput = 0;
+  private boolean growing = true;
+  private boolean reversed = false;
+  private boolean settled = false;
+
+  /**
+   * @param numThreads
+   *          the number of worker threads.
+   * @param minLengthForEachWorker
+   *          the configured smallest size of the list of numbers a worker
+   *          thread would handle.
+   * @param segmentLength
+   *          the configured number of numbers in each segment, only used when
+   *          not "adaptive".
+   * @param sieveMode
+   *          tells how many numbers a byte of flags covers.
+   * @param adaptive
+   *          true to pick and refine the values at runtime.
+   */
+  @Inject
+  public SieveTuner(@Named("numThreads") Integer numThreads,
+      @Named("minLengthForEachWorker") Integer minLengthForEachWorker,
+      @Named("segmentLength") Integer segmentLength,
+      SieveMode sieveMode,
+      @Named("adaptive") Boolean adaptive) {
+    this.adaptive = adaptive;
+    this.numThreads = numThreads;
+    this.minLengthForEachWorker = minLengthForEachWorker;
+    if (adaptive) {
+      int numbersPerByte = (sieveMode == SieveMode.WHEEL || sieveMode == SieveMode.OFF_HEAP_WHEEL)
+          ? 30 : 8;
+      segmentLength = clampSegmentLength((long) detectL2CacheSize() / 2 * numbersPerByte);
+    }
+    this.segmentLength = segmentLength;
+    this.bestSegmentLength = segmentLength;
+  }
+
+  public boolean isAdaptive() {
+    return adaptive;
+  }
+
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  /**
+   * @return the segment length currently chosen.
+   */
+  public int getSegmentLength() {
+    return segmentLength;
+  }
+
+  /**
+   * @return the segment length to use for a run over "numbers" numbers, which
+   *         in the adaptive mode is small enough to give every worker thread
+   *         several segments.
+   */
+  int segmentLengthFor(long numbers) {
+    int length = segmentLength;
+    if (adaptive) {
+      long balanced = numbers / ((long) numThreads * MIN_SEGMENTS_PER_THREAD);
+      length = (int) Math.max(MIN_SEGMENT_LENGTH, Math.min(length, balanced));
+    }
+    return length;
+  }
+
+  /**
+   * @return the "minLengthForEachWorker" currently chosen.
+   */
+  public int getMinLengthForEachWorker() {
+    return minLengthForEachWorker;
+  }
+
+  /**
+   * Take the throughput of the worker threads over a whole run into account.
+   *
+   * @param length
+   *          the segment length given by "segmentLengthFor" for the run.
+   * @param numSegments
+   *          the number of segments of the run.
+   * @param numbers
+   *          the number of numbers sieved.
+   * @param nanos
+   *          the time spent by all the worker threads on the segments.
+   */
+  synchronized void recordSegments(int length, int numSegments, long numbers, long nanos) {
+    if (!adaptive || settled || length != segmentLength || nanos <= 0
+        || numSegments < (long) numThreads * MIN_SEGMENTS_PER_THREAD) {
+      return;
+    }
+    double throughput = (double) numbers / nanos;
+    if (throughput > bestThroughput) {
+      bestThroughput = throughput;
+      bestSegmentLength = length;
+    } else if (!reversed) {
+      reversed = true;
+      growing = !growing;
+    } else {
+      settled = true;
+      segmentLength = bestSegmentLength;
+      return;
+    }
+    int next = step(bestSegmentLength);
+    if (next == bestSegmentLength) {
+      // At a bound, try the other way if not done yet.
+      if (!reversed) {
+        reversed = true;
+        growing = !growing;
+        next = step(bestSegmentLength);
+      }
+      settled = next == bestSegmentLength;
+    }
+    segmentLength = next;
+  }
+
+  /**
+   * Take the time of the tasks marking the multiples of one base prime into
+   * account, in the "PER_PRIME" mode.
+   *
+   * @param numTasks
+   *          the number of tasks run at once.
+   * @param numbers
+   *          the number of numbers handled by all the tasks.
+   * @param nanos
+   *          the time taken by all the tasks.
+   */
+  void recordTasks(int numTasks, long numbers, long nanos) {
+    if (!adaptive || numTasks == 0 || nanos <= 0) {
+      return;
+    }
+    long rounds = (numTasks + numThreads - 1) / numThreads;
+    double numbersPerNano = (double) numbers / numTasks / ((double) nanos / rounds);
+    long wanted = (long) (numbersPerNano * TARGET_TASK_NANOS);
+    // Move half way to smooth out the noise.
+    long updated = (minLengthForEachWorker + wanted) / 2;
+    minLengthForEachWorker = (int) Math.max(1, Math.min(Integer.MAX_VALUE, updated));
+  }
+
+  private int step(int length) {
+    return clampSegmentLength(growing ? 2L * length : length / 2);
+  }
+
+  private static int clampSegmentLength(long length) {
+    return (int) Math.max(MIN_SEGMENT_LENGTH, Math.min(MAX_SEGMENT_LENGTH, length));
+  }
+
+  /**
+   * @return the size in bytes of the L2 cache of the first processor, or
+   *         "DEFAULT_L2_CACHE_SIZE" if it can't be found.
+   */
+  public static int detectL2CacheSize() {
+    for (int i = 0; i < 8; ++i) {
+      Path index = CACHE_DIRECTORY.resolve("index" + i);
+      try {
+        if (!Files.isDirectory(index)) {
+          break;
+        }
+        String level = Files.readString(index.resolve("level")).trim();
+        String type = Files.readString(index.resolve("type")).trim();
+        if (level.equals("2") && !type.equals("Instruction")) {
+          return parseCacheSize(Files.readString(index.resolve("size")).trim());
+        }
+      } catch (IOException | RuntimeException e) {
+        break;
+      }
+    }
+    return DEFAULT_L2_CACHE_SIZE;
+  }
+
+  /**
+   * @return the number of bytes of a size like "512K" or "2M".
+   */
+  static int parseCacheSize(String size) {
+    String upper = size.toUpperCase(Locale.ROOT);
+    long multiplier = 1;
+    if (upper.endsWith("K")) {
+      multiplier = 1 << 10;
+    } else if (upper.endsWith("M")) {
+      multiplier = 1 << 20;
+    }
+    if (multiplier != 1) {
+      upper = upper.substring(0, upper.length() - 1);
+    }
+    return (int) Math.min(Integer.MAX_VALUE, Long.parseLong(upper) * multiplier);
+  }
+}
@@ -0,0 +1,124 @@
+package primeNumberCalculation;
+
+/**
+ * The smallest prime factor of every number in [1, limit), built by a linear
+ * sieve, which sets each entry exactly once.
+ *
+ * Only the odd numbers are stored, as the even ones are handled with
+ * "Integer.numberOfTrailingZeros". The entry of an odd number is 0 if it is
+ * prime (or 1), else 1 + the position of its smallest prime factor among the
+ * odd prime numbers up to sqrt(limit). There are less than 5000 of these, so
+ * each entry fits in a "char", and the table takes one byte per number.
+ *
+ * The table is never modified once built, so it can be shared by any number
+ * of threads.
+ */
+public class SmallestPrimeFactorTable {
+  private final int limit;
+  private final char[] entries;
+  private final int[] oddPrimes;
+
+  /**
+   * @param limit
+   *          the upper bound (excluded) of the numbers covered, which should
+   *          be positive.
+   */
+  public SmallestPrimeFactorTable(int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("The limit of the table should be positive");
+    }
+    this.limit = limit;
+    this.entries = new char[(int) (((long) limit + 1) / 2)];
+    int root = PrimeCountTable.sqrtFloor(limit);
+    int[] primes = BasePrimeCache.sieve(root);
+    // Skip 2 in the odd prime numbers.
+    this.oddPrimes = new int[Math.max(0, primes.length - 1)];
+    System.arraycopy(primes, primes.length - oddPrimes.length, oddPrimes, 0, oddPrimes.length);
+
+    // Every odd composite "m" is set once, from i = m / spf(m), by the prime
+    // spf(m), which is no larger than the smallest prime factor of "i".
+    final char[] entries = this.entries;
+    final int[] oddPrimes = this.oddPrimes;
+    for (int i = 3; i < limit; i += 2) {
+      int entry = entries[i >>> 1];
+      int maxIndex = (entry == 0) ? oddPrimes.length - 1 : entry - 1;
+      for (int k = 0; k <= maxIndex && oddPrimes[k] <= i; ++k) {
+        long multiple = (long) oddPrimes[k] * i;
+        if (multiple >= limit) {
+          break;
+        }
+        entries[(int) (multiple >>> 1)] = (char) (k + 1);
+      }
+    }
+  }
+
+  /**
+   * @return the upper bound (excluded) of the numbers covered.
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return the smallest prime factor of "number", or 1 if "number" is 1.
+   */
+  public int smallestPrimeFactor(int number) {
+    checkNumber(number);
+    if ((number & 1) == 0) {
+      return 2;
+    }
+    int entry = entries[number >>> 1];
+    return (entry == 0) ? number : oddPrimes[entry - 1];
+  }
+
+  /**
+   * @return the number of prime factors of "number", counted with
+   *         multiplicity.
+   */
+  public int countFactors(int number) {
+    checkNumber(number);
+    int count = Integer.numberOfTrailingZeros(number);
+    number >>>= count;
+    while (number > 1) {
+      ++count;
+      int entry = entries[number >>> 1];
+      if (entry == 0) {
+        break;
+      }
+      number /= oddPrimes[entry - 1];
+    }
+    return count;
+  }
+
+  /**
+   * Write the prime factors of "number" in increasing order, with
+   * multiplicity, into "factors" from "offset".
+   *
+   * @return the number of prime factors written.
+   */
+  public int factorize(int number, int[] factors, int offset) {
+    checkNumber(number);
+    int position = offset;
+    for (int twos = Integer.numberOfTrailingZeros(number); twos > 0; --twos) {
+      factors[position++] = 2;
+    }
+    number >>>= position - offset;
+    while (number > 1) {
+      int entry = entries[number >>> 1];
+      if (entry == 0) {
+        factors[position++] = number;
+        break;
+      }
+      int prime = oddPrimes[entry - 1];
+      factors[position++] = prime;
+      number /= prime;
+    }
+    return position - offset;
+  }
+
+  private void checkNumber(int number) {
+    if (number < 1 || number >= limit) {
+      throw new IllegalArgumentException("The number should be in [1, " + limit + ")");
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package primeNumberCalculation;
+
+import java.util.Arrays;
+
+/**
+ * Flags indicating whether a number is prime or not, storing only the numbers
+ * coprime to 2 * 3 * 5 = 30. Each block of 30 numbers has 8 such candidates,
+ * so it takes one byte, and a "long" word covers 8 blocks, i.e. 240 numbers.
+ * A set bit means the candidate is known to be non-prime. The numbers 2, 3 and
+ * 5 are always considered prime, and every other number sharing a factor with
+ * 30 is always considered non-prime. The lower bound of the flags is rounded
+ * down to a multiple of 30.
+ */
+public class WheelPrimeNumberFlags implements SieveFlags {
+  private static final int WHEEL = 30;
+  private static final int CANDIDATES_PER_WHEEL = 8;
+  private static final int NUMBERS_PER_WORD = WHEEL * 64 / CANDIDATES_PER_WHEEL;
+  private static final int ADDRESS_BITS_PER_WORD = 6;
+
+  /** The residues modulo 30 of the stored candidates, in increasing order. */
+  private static final int[] RESIDUES = { 1, 7, 11, 13, 17, 19, 23, 29 };
+
+  /** The position in "RESIDUES" of each residue, or -1 if it's not stored. */
+  private static final int[] RESIDUE_INDEX = new int[WHEEL];
+
+  /**
+   * The position in "RESIDUES" of the smallest stored residue no less than
+   * each residue, or 8 if there is none in the same block.
+   */
+  private static final int[] NEXT_RESIDUE_INDEX = new int[WHEEL];
+
+  static {
+    Arrays.fill(RESIDUE_INDEX, -1);
+    for (int i = 0; i < CANDIDATES_PER_WHEEL; ++i) {
+      RESIDUE_INDEX[RESIDUES[i]] = i;
+    }
+    int next = CANDIDATES_PER_WHEEL;
+    for (int residue = WHEEL - 1; residue >= 0; --residue) {
+      if (RESIDUE_INDEX[residue] >= 0) {
+        next = RESIDUE_INDEX[residue];
+      }
+      NEXT_RESIDUE_INDEX[residue] = next;
+    }
+  }
+
+  private final long[] words;
+  private final long lowerBound;
+  private final long upperBound;
+
+  /**
+   * @param size
+   *          the upper bound (excluded) of the numbers covered by the flags.
+   */
+  public WheelPrimeNumberFlags(int size) {
+    this(0L, size);
+  }
+
+  /**
+   * @param lowerBound
+   *          the first number to be covered by the flags, which is rounded
+   *          down to a multiple of 30.
+   * @param size
+   *          the flags cover the numbers in [lowerBound, lowerBound + size).
+   */
+  public WheelPrimeNumberFlags(long lowerBound, int size) {
+    if (size < 0 || lowerBound < 0) {
+      throw new IllegalArgumentException("The flags should cover non-negative numbers");
+    }
+    this.lowerBound = lowerBound - lowerBound % WHEEL;
+    this.upperBound = lowerBound + size;
+    this.words = new long[(int) ((upperBound - this.lowerBound + NUMBERS_PER_WORD - 1)
+        / NUMBERS_PER_WORD)];
+  }
+
+  @Override
+  public long lowerBound() {
+    return lowerBound;
+  }
+
+  @Override
+  public long upperBound() {
+    return upperBound;
+  }
+
+  @Override
+  public int wordSpan() {
+    return NUMBERS_PER_WORD;
+  }
+
+  @Override
+  public int numWords() {
+    return words.length;
+  }
+
+  @Override
+  public long word(int index) {
+    return words[index];
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(words, 0L);
+  }
+
+  /**
+   * Only the multiples "prime * m" with "m" coprime to 30 are visited, which is
+   * 8 out of every 30 multiples. Primes less than 7 have nothing to mark.
+   */
+  @Override
+  public void markMultiplesOf(int prime, long from, long to) {
+    if (prime < 7) {
+      return;
+    }
+    final long[] words = this.words;
+    from = Math.max(from, lowerBound);
+    to = Math.min(to, upperBound);
+    long multiplier = Math.max(prime, (from + prime - 1) / prime);
+    long wheelStart = multiplier - multiplier % WHEEL;
+    int residueIndex = NEXT_RESIDUE_INDEX[(int) (multiplier % WHEEL)];
+    while (true) {
+      for (; residueIndex < CANDIDATES_PER_WHEEL; ++residueIndex) {
+        long number = prime * (wheelStart + RESIDUES[residueIndex]);
+        if (number >= to) {
+          return;
+        }
+        long bitIndex = candidateIndex(number - lowerBound);
+        words[(int) (bitIndex >>> ADDRESS_BITS_PER_WORD)] |= 1L << bitIndex;
+      }
+      residueIndex = 0;
+      wheelStart += WHEEL;
+    }
+  }
+
+  /**
+   * Copy the pattern of the multiples of the primes from 7 to 17.
+   */
+  @Override
+  public int presieve(long from, long to) {
+    PresievePattern pattern = PresievePattern.WHEEL;
+    from = Math.max(from, lowerBound);
+    to = Math.min(to, upperBound);
+    if (from < to) {
+      int fromWord = (int) ((from - lowerBound) / NUMBERS_PER_WORD);
+      int toWord = (int) ((to - lowerBound + NUMBERS_PER_WORD - 1) / NUMBERS_PER_WORD);
+      pattern.stamp(words, fromWord, toWord,
+          pattern.wordAt(lowerBound + (long) fromWord * NUMBERS_PER_WORD));
+      for (int prime : pattern.primes()) {
+        if (prime >= from && prime < to) {
+          long bitIndex = candidateIndex(prime - lowerBound);
+          words[(int) (bitIndex >>> ADDRESS_BITS_PER_WORD)] &= ~(1L << bitIndex);
+        }
+      }
+    }
+    return pattern.limit();
+  }
+
+  @Override
+  public long nextPrime(long fromNumber) {
+    fromNumber = Math.max(fromNumber, lowerBound);
+    if (fromNumber <= 5) {
+      int smallPrime = fromNumber <= 2 ? 2 : (fromNumber <= 3 ? 3 : 5);
+      return Math.min(smallPrime, upperBound);
+    }
+    fromNumber = Math.max(fromNumber, 7);
+    if (fromNumber >= upperBound) {
+      return upperBound;
+    }
+    long bitIndex = candidatesBelow(fromNumber - lowerBound);
+    int wordIndex = (int) (bitIndex >>> ADDRESS_BITS_PER_WORD);
+    if (wordIndex == words.length) {
+      return upperBound;
+    }
+    long word = ~words[wordIndex] & (-1L << bitIndex);
+    while (true) {
+      if (word != 0) {
+        long foundIndex = (long) wordIndex * 64 + Long.numberOfTrailingZeros(word);
+        long number = lowerBound + candidateAt(foundIndex);
+        return Math.min(number, upperBound);
+      }
+      if (++wordIndex == words.length) {
+        return upperBound;
+      }
+      word = ~words[wordIndex];
+    }
+  }
+
+  /**
+   * @return the position of "number" among the numbers coprime to 30, or -1 if
+   *         it shares a factor with 30.
+   */
+  static long candidateIndex(long number) {
+    int residueIndex = RESIDUE_INDEX[(int) (number % WHEEL)];
+    return (residueIndex < 0) ? -1 : (number / WHEEL) * CANDIDATES_PER_WHEEL + residueIndex;
+  }
+
+  /**
+   * @return the number of numbers coprime to 30 in [0, number), which is also
+   *         the position of the first one no less than "number".
+   */
+  static long candidatesBelow(long number) {
+    return (number / WHEEL) * CANDIDATES_PER_WHEEL + NEXT_RESIDUE_INDEX[(int) (number % WHEEL)];
+  }
+
+  /**
+   * @return the number coprime to 30 at position "candidateIndex".
+   */
+  static long candidateAt(long candidateIndex) {
+    return candidateIndex / CANDIDATES_PER_WHEEL * WHEEL
+        + RESIDUES[(int) (candidateIndex % CANDIDATES_PER_WHEEL)];
+  }
+}